@@ -0,0 +1,62 @@
+package org.framework.rodolfo.freire.git.asuna.event;
+
+import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Keeps an idle count for the one service it drives, give each EventMachine its own instance.
+public class AdaptiveSelectStrategy implements SelectStrategy {
+
+    public final static int DEFAULT_SPIN_COUNT = 10000;
+    public final static int DEFAULT_YIELD_COUNT = 100;
+
+    private final int spinCount;
+    private final int yieldCount;
+    private final AtomicReference<NIOService> owner;
+    private int idleCount;
+
+    public AdaptiveSelectStrategy() {
+        this(DEFAULT_SPIN_COUNT, DEFAULT_YIELD_COUNT);
+    }
+
+    public AdaptiveSelectStrategy(int spinCount, int yieldCount) {
+        if (spinCount < 0 || yieldCount < 0) {
+            throw new IllegalArgumentException("Spin and yield counts must be positive, was: " + spinCount + "/" + yieldCount);
+        }
+        this.spinCount = spinCount;
+        this.yieldCount = yieldCount;
+        owner = new AtomicReference<>();
+        idleCount = 0;
+    }
+
+    public void select(NIOService nioService, long timeout) throws IOException {
+        if (nioService.selectNow() > 0) {
+            idleCount = 0;
+            return;
+        }
+        idleCount++;
+        if (idleCount <= spinCount) {
+            Thread.onSpinWait();
+        } else if (idleCount <= spinCount + yieldCount) {
+            Thread.yield();
+        } else {
+            idleCount = 0;
+            nioService.select(timeout);
+        }
+    }
+
+    void bind(NIOService nioService) {
+        if (!owner.compareAndSet(null, nioService) && owner.get() != nioService) {
+            throw new IllegalStateException("Strategy already drives another service, use one instance per EventMachine.");
+        }
+    }
+
+    public int getSpinCount() {
+        return spinCount;
+    }
+
+    public int getYieldCount() {
+        return yieldCount;
+    }
+}
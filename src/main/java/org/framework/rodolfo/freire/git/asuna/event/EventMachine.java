@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.PriorityBlockingQueue;
 
 
@@ -14,11 +15,19 @@ public class EventMachine {
 
     private final NIOService nioService;
     private final Queue<DelayedAction> delayedActionQueue;
-    private Thread runnerThread;
+    private volatile SelectStrategy selectStrategy;
+    private volatile int maxActionsPerSelect;
+    private volatile Thread runnerThread;
 
     public EventMachine() throws IOException {
-        nioService = new NIOService();
+        this(new NIOService());
+    }
+
+    public EventMachine(NIOService nioService) {
+        this.nioService = nioService;
         delayedActionQueue = new PriorityBlockingQueue<>();
+        selectStrategy = SelectStrategy.BLOCKING;
+        maxActionsPerSelect = -1;
         runnerThread = null;
     }
 
@@ -59,11 +68,12 @@ public class EventMachine {
         runnerThread = new Thread() {
             @Override
             public void run() {
-                while (runnerThread == this) {
+                // A drain closes the service on this thread, stop there instead of selecting on a closed selector.
+                while (runnerThread == this && nioService.isOpen()) {
                     try {
                         select();
                     } catch (Throwable e) {
-                        if (runnerThread == this) getNIOService().notifyException(e);
+                        if (runnerThread == this && nioService.isOpen()) getNIOService().notifyException(e);
                     }
                 }
             }
@@ -83,20 +93,35 @@ public class EventMachine {
         stop();
     }
 
+    public synchronized CompletableFuture<Long> shutdownGracefully(long timeout) {
+        if (runnerThread == null) throw new IllegalStateException("The service is not running.");
+        return nioService.drain(timeout).whenComplete((droppedBytes, e) -> {
+            synchronized (EventMachine.this) {
+                if (runnerThread != null) stop();
+            }
+        });
+    }
+
     private void select() throws Throwable {
         // Run queued actions to be called
-        while (timeOfNextEvent() <= System.currentTimeMillis()) {
+        int actions = 0;
+        while ((maxActionsPerSelect < 0 || actions < maxActionsPerSelect)
+                && timeOfNextEvent() <= System.currentTimeMillis()) {
+            actions++;
             try {
                 runNextAction();
             } catch (Throwable t) {
                 getNIOService().notifyException(t);
             }
         }
-        if (timeOfNextEvent() == Long.MAX_VALUE) {
-            nioService.selectBlocking();
+        if (timeOfNextEvent() <= System.currentTimeMillis()) {
+            // Out of budget with actions still due, poll for I/O without blocking.
+            nioService.selectNonBlocking();
+        } else if (timeOfNextEvent() == Long.MAX_VALUE) {
+            selectStrategy.select(nioService, 0);
         } else {
             long delay = timeOfNextEvent() - System.currentTimeMillis();
-            nioService.selectBlocking(Math.max(1, delay));
+            selectStrategy.select(nioService, Math.max(1, delay));
         }
     }
 
@@ -104,6 +129,28 @@ public class EventMachine {
         delayedActionQueue.poll().run();
     }
 
+    public int getMaxActionsPerSelect() {
+        return maxActionsPerSelect;
+    }
+
+    public void setMaxActionsPerSelect(int maxActionsPerSelect) {
+        if (maxActionsPerSelect < 1 && maxActionsPerSelect != -1) {
+            throw new IllegalArgumentException("Action budget must be at least 1, was: " + maxActionsPerSelect);
+        }
+        this.maxActionsPerSelect = maxActionsPerSelect;
+    }
+
+    public SelectStrategy getSelectStrategy() {
+        return selectStrategy;
+    }
+
+    public void setSelectStrategy(SelectStrategy selectStrategy) {
+        if (selectStrategy == null) throw new NullPointerException();
+        if (selectStrategy instanceof AdaptiveSelectStrategy) ((AdaptiveSelectStrategy) selectStrategy).bind(nioService);
+        this.selectStrategy = selectStrategy;
+        nioService.wakeup();
+    }
+
     public NIOService getNIOService() {
         return nioService;
     }
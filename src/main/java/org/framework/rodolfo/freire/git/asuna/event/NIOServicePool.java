@@ -0,0 +1,204 @@
+package org.framework.rodolfo.freire.git.asuna.event;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ExceptionObserver;
+import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
+import org.framework.rodolfo.freire.git.asuna.socket.server.NIOServerSocket;
+import org.framework.rodolfo.freire.git.asuna.socket.ssl.NIOServerSocketSSL;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class NIOServicePool {
+
+    private final EventMachine[] acceptorMachines;
+    private final EventMachine[] eventMachines;
+    private final Balance balance;
+    private final AtomicInteger nextIndex;
+
+    public NIOServicePool() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public NIOServicePool(int size) throws IOException {
+        this(size, Balance.ROUND_ROBIN);
+    }
+
+    public NIOServicePool(int size, Balance balance) throws IOException {
+        this(0, size, balance);
+    }
+
+    public NIOServicePool(int acceptors, int size, Balance balance) throws IOException {
+        if (acceptors < 0) throw new IllegalArgumentException("Acceptor count must be positive, was: " + acceptors);
+        if (size < 1) throw new IllegalArgumentException("Pool must hold at least 1 service, was: " + size);
+        if (balance == null) throw new NullPointerException();
+        acceptorMachines = new EventMachine[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            acceptorMachines[i] = new EventMachine();
+        }
+        eventMachines = new EventMachine[size];
+        for (int i = 0; i < size; i++) {
+            eventMachines[i] = new EventMachine();
+        }
+        this.balance = balance;
+        nextIndex = new AtomicInteger(0);
+    }
+
+    public NIOService next() {
+        if (balance == Balance.LEAST_CONNECTIONS) return leastConnections();
+        return eventMachines[nextIndex()].getNIOService();
+    }
+
+    private int nextIndex() {
+        return Math.floorMod(nextIndex.getAndIncrement(), eventMachines.length);
+    }
+
+    private NIOService leastConnections() {
+        int start = nextIndex();
+        NIOService selected = null;
+        for (int i = 0; i < eventMachines.length; i++) {
+            NIOService service = eventMachines[(start + i) % eventMachines.length].getNIOService();
+            if (selected == null || service.getSocketCount() < selected.getSocketCount()) {
+                selected = service;
+            }
+        }
+        return selected;
+    }
+
+    public NIOServerSocket[] openServerSocket(int port) throws IOException {
+        return openServerSocket(new InetSocketAddress(port), -1);
+    }
+
+    public NIOServerSocket[] openServerSocket(InetSocketAddress address, int backlog) throws IOException {
+        return openServerSockets(null, address, backlog, new NIOServerSocket[Math.max(1, acceptorMachines.length)]);
+    }
+
+    public NIOServerSocketSSL[] openSSLServerSocket(SSLContext sslContext, int port) throws IOException {
+        return openSSLServerSocket(sslContext, new InetSocketAddress(port), -1);
+    }
+
+    public NIOServerSocketSSL[] openSSLServerSocket(SSLContext sslContext, InetSocketAddress address, int backlog) throws IOException {
+        if (sslContext == null) throw new NullPointerException();
+        return openServerSockets(sslContext, address, backlog, new NIOServerSocketSSL[Math.max(1, acceptorMachines.length)]);
+    }
+
+    private <T extends NIOServerSocket> T[] openServerSockets(SSLContext sslContext, InetSocketAddress address, int backlog, T[] serverSockets) throws IOException {
+        boolean reusePort = serverSockets.length > 1;
+        try {
+            for (int i = 0; i < serverSockets.length; i++) {
+                NIOService service = acceptorMachines.length == 0 ? next() : acceptorMachines[i].getNIOService();
+                serverSockets[i] = openServerSocket(service, sslContext, address, backlog, reusePort);
+                serverSockets[i].setServicePool(this);
+                if (address.getPort() == 0) {
+                    address = new InetSocketAddress(address.getAddress(), serverSockets[i].socket().getLocalPort());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (T serverSocket : serverSockets) {
+                if (serverSocket != null) serverSocket.close();
+            }
+            throw e;
+        }
+        return serverSockets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends NIOServerSocket> T openServerSocket(NIOService service, SSLContext sslContext, InetSocketAddress address, int backlog, boolean reusePort) throws IOException {
+        if (sslContext == null) return (T) service.openServerSocket(address, backlog, reusePort);
+        return (T) service.openSSLServerSocket(sslContext, address, backlog, reusePort);
+    }
+
+    public void setObserver(ExceptionObserver observer) {
+        for (EventMachine eventMachine : acceptorMachines) {
+            eventMachine.setObserver(observer);
+        }
+        for (EventMachine eventMachine : eventMachines) {
+            eventMachine.setObserver(observer);
+        }
+    }
+
+    public void setSelectStrategy(Supplier<SelectStrategy> selectStrategies) {
+        for (EventMachine eventMachine : acceptorMachines) {
+            eventMachine.setSelectStrategy(selectStrategies.get());
+        }
+        for (EventMachine eventMachine : eventMachines) {
+            eventMachine.setSelectStrategy(selectStrategies.get());
+        }
+    }
+
+    public synchronized void start() {
+        for (EventMachine eventMachine : eventMachines) {
+            eventMachine.start();
+        }
+        for (EventMachine eventMachine : acceptorMachines) {
+            eventMachine.start();
+        }
+    }
+
+    public synchronized void stop() {
+        for (EventMachine eventMachine : acceptorMachines) {
+            eventMachine.stop();
+        }
+        for (EventMachine eventMachine : eventMachines) {
+            eventMachine.stop();
+        }
+    }
+
+    public synchronized void shutdown() {
+        for (EventMachine eventMachine : acceptorMachines) {
+            eventMachine.shutdown();
+        }
+        for (EventMachine eventMachine : eventMachines) {
+            eventMachine.shutdown();
+        }
+    }
+
+    public synchronized CompletableFuture<Long> shutdownGracefully(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        CompletableFuture<Long> acceptorsDropped = CompletableFuture.completedFuture(0L);
+        for (EventMachine eventMachine : acceptorMachines) {
+            acceptorsDropped = acceptorsDropped.thenCombine(eventMachine.shutdownGracefully(timeout), Long::sum);
+        }
+        // Workers drain once no acceptor can hand them another channel, in what is left of the timeout.
+        return acceptorsDropped.thenCompose(dropped -> {
+            long timeLeft = Math.max(0, deadline - System.currentTimeMillis());
+            CompletableFuture<Long> droppedBytes = CompletableFuture.completedFuture(dropped);
+            for (EventMachine eventMachine : eventMachines) {
+                droppedBytes = droppedBytes.thenCombine(eventMachine.shutdownGracefully(timeLeft), Long::sum);
+            }
+            return droppedBytes;
+        });
+    }
+
+    public int size() {
+        return eventMachines.length;
+    }
+
+    public int getAcceptorCount() {
+        return acceptorMachines.length;
+    }
+
+    public EventMachine getEventMachine(int index) {
+        return eventMachines[index];
+    }
+
+    public EventMachine getAcceptorMachine(int index) {
+        return acceptorMachines[index];
+    }
+
+    public NIOService getNIOService(int index) {
+        return eventMachines[index].getNIOService();
+    }
+
+    public Balance getBalance() {
+        return balance;
+    }
+
+    public enum Balance {
+        ROUND_ROBIN,
+        LEAST_CONNECTIONS
+    }
+}
@@ -0,0 +1,17 @@
+package org.framework.rodolfo.freire.git.asuna.event;
+
+import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
+
+import java.io.IOException;
+
+public interface SelectStrategy {
+
+    SelectStrategy BLOCKING = (nioService, timeout) -> nioService.select(timeout);
+
+    SelectStrategy BUSY_SPIN = (nioService, timeout) -> {
+        if (nioService.selectNow() == 0) Thread.onSpinWait();
+    };
+
+    void select(NIOService nioService, long timeout) throws IOException;
+
+}
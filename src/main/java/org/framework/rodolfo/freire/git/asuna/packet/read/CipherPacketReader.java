@@ -2,6 +2,8 @@ package org.framework.rodolfo.freire.git.asuna.packet.read;
 
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
 
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+
 import javax.crypto.Cipher;
 import javax.crypto.ShortBufferException;
 import java.nio.ByteBuffer;
@@ -9,12 +11,18 @@ import java.nio.ByteBuffer;
 public class CipherPacketReader implements PacketReader {
 
     private final Cipher mCipher;
+    private final ByteBufferPool mBufferPool;
     private ByteBuffer mInternalBuffer;
     private PacketReader mReader;
 
     public CipherPacketReader(Cipher cipher, PacketReader reader) {
+        this(cipher, reader, ByteBufferPool.SHARED);
+    }
+
+    public CipherPacketReader(Cipher cipher, PacketReader reader, ByteBufferPool bufferPool) {
         mCipher = cipher;
         mReader = reader;
+        mBufferPool = bufferPool;
     }
 
     public PacketReader getReader() {
@@ -27,11 +35,12 @@ public class CipherPacketReader implements PacketReader {
 
     public byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException {
         if (mInternalBuffer == null) {
-            mInternalBuffer = ByteBuffer.allocate(mCipher.getOutputSize(byteBuffer.remaining()));
+            mInternalBuffer = mBufferPool.acquire(mCipher.getOutputSize(byteBuffer.remaining()));
         } else {
             if (byteBuffer.remaining() > 0) {
-                ByteBuffer newBuffer = ByteBuffer.allocate(mCipher.getOutputSize(byteBuffer.remaining()) + mInternalBuffer.remaining());
+                ByteBuffer newBuffer = mBufferPool.acquire(mCipher.getOutputSize(byteBuffer.remaining()) + mInternalBuffer.remaining());
                 newBuffer.put(mInternalBuffer);
+                mBufferPool.release(mInternalBuffer);
                 mInternalBuffer = newBuffer;
             }
         }
@@ -44,8 +53,17 @@ public class CipherPacketReader implements PacketReader {
             mInternalBuffer.flip();
         }
         byte[] packet = mReader.nextPacket(mInternalBuffer);
-        if (mInternalBuffer.remaining() == 0) mInternalBuffer = null;
+        if (mInternalBuffer.remaining() == 0) {
+            mBufferPool.release(mInternalBuffer);
+            mInternalBuffer = null;
+        }
         return packet;
     }
 
+    public void release() {
+        mBufferPool.release(mInternalBuffer);
+        mInternalBuffer = null;
+        mReader.release();
+    }
+
 }
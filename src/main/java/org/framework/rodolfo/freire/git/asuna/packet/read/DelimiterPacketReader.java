@@ -1,12 +1,17 @@
 package org.framework.rodolfo.freire.git.asuna.packet.read;
 
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
-public class DelimiterPacketReader implements PacketReader {
+public class DelimiterPacketReader implements ResumablePacketReader {
+
+    private final static long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
 
     private final byte mDelimiter;
+    private final long mPattern;
     private volatile int mMaxPacketSize;
 
     public DelimiterPacketReader(byte delimiter) {
@@ -18,6 +23,7 @@ public class DelimiterPacketReader implements PacketReader {
             throw new IllegalArgumentException("Max packet size must be larger that 1, was: " + maxPacketSize);
         }
         mDelimiter = delimiter;
+        mPattern = (delimiter & 0xFFL) * 0x0101010101010101L;
         mMaxPacketSize = maxPacketSize;
     }
 
@@ -29,24 +35,63 @@ public class DelimiterPacketReader implements PacketReader {
         mMaxPacketSize = maxPacketSize;
     }
 
-    @SuppressWarnings({"ResultOfMethodCallIgnored"})
     public byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException {
-        byteBuffer.mark();
-        int bytesRead = 0;
-        while (byteBuffer.remaining() > 0) {
-            int ch = byteBuffer.get();
-            if (ch == mDelimiter) {
-                byte[] packet = new byte[bytesRead];
-                byteBuffer.reset();
-                byteBuffer.get(packet);
-                byteBuffer.get();
-                return packet;
+        return nextPacket(byteBuffer, 0);
+    }
+
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer) throws ProtocolViolationException {
+        return nextSlice(byteBuffer, 0);
+    }
+
+    @SuppressWarnings({"ResultOfMethodCallIgnored"})
+    public byte[] nextPacket(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int length = nextLength(byteBuffer, scanned);
+        if (length < 0) return null;
+        byte[] packet = new byte[length];
+        byteBuffer.get(packet);
+        byteBuffer.get();
+        return packet;
+    }
+
+    @SuppressWarnings({"ResultOfMethodCallIgnored"})
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int length = nextLength(byteBuffer, scanned);
+        if (length < 0) return null;
+        ByteBuffer slice = NIOUtils.slice(byteBuffer, length);
+        byteBuffer.get();
+        return slice;
+    }
+
+    public int scannedLength(int unread) {
+        return unread;
+    }
+
+    private int nextLength(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int start = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        int i = start + Math.max(0, Math.min(scanned, limit - start));
+        boolean bigEndian = byteBuffer.order() == ByteOrder.BIG_ENDIAN;
+        while (i + 8 <= limit) {
+            long x = byteBuffer.getLong(i) ^ mPattern;
+            long found = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+            if (found != 0) {
+                return packetLength(start, i + ((bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found)) >>> 3));
             }
-            bytesRead++;
-            if (mMaxPacketSize > 0 && bytesRead > mMaxPacketSize)
-                throw new ProtocolViolationException("Packet exceeds max " + mMaxPacketSize);
+            i += 8;
+        }
+        while (i < limit) {
+            if (byteBuffer.get(i) == mDelimiter) return packetLength(start, i);
+            i++;
         }
-        byteBuffer.reset();
-        return null;
+        if (mMaxPacketSize > 0 && limit - start > mMaxPacketSize)
+            throw new ProtocolViolationException("Packet exceeds max " + mMaxPacketSize);
+        return -1;
+    }
+
+    private int packetLength(int start, int delimiterIndex) throws ProtocolViolationException {
+        int length = delimiterIndex - start;
+        if (mMaxPacketSize > 0 && length > mMaxPacketSize)
+            throw new ProtocolViolationException("Packet exceeds max " + mMaxPacketSize);
+        return length;
     }
 }
\ No newline at end of file
@@ -10,4 +10,8 @@ public interface PacketReader {
 
     byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException;
 
+    // Gives back buffers held for an unfinished packet, the socket calls it once closed.
+    default void release() {
+    }
+
 }
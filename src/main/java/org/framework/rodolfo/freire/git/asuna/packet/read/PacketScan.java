@@ -0,0 +1,47 @@
+package org.framework.rodolfo.freire.git.asuna.packet.read;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+
+import java.nio.ByteBuffer;
+
+// How far the unfinished packet of one connection was scanned, only valid while its unread bytes stay in order.
+public class PacketScan {
+
+    private ResumablePacketReader mReader;
+    private int mScanned;
+
+    public PacketScan() {
+        mReader = null;
+        mScanned = 0;
+    }
+
+    public byte[] nextPacket(PacketReader reader, ByteBuffer byteBuffer) throws ProtocolViolationException {
+        if (!(reader instanceof ResumablePacketReader)) return reader.nextPacket(byteBuffer);
+        ResumablePacketReader resumable = (ResumablePacketReader) reader;
+        byte[] packet = resumable.nextPacket(byteBuffer, resumable == mReader ? mScanned : 0);
+        scanned(resumable, packet == null, byteBuffer);
+        return packet;
+    }
+
+    public ByteBuffer nextSlice(SlicePacketReader reader, ByteBuffer byteBuffer) throws ProtocolViolationException {
+        if (!(reader instanceof ResumablePacketReader)) return reader.nextSlice(byteBuffer);
+        ResumablePacketReader resumable = (ResumablePacketReader) reader;
+        ByteBuffer slice = resumable.nextSlice(byteBuffer, resumable == mReader ? mScanned : 0);
+        scanned(resumable, slice == null, byteBuffer);
+        return slice;
+    }
+
+    private void reset() {
+        mReader = null;
+        mScanned = 0;
+    }
+
+    private void scanned(ResumablePacketReader reader, boolean unfinished, ByteBuffer byteBuffer) {
+        if (unfinished) {
+            mReader = reader;
+            mScanned = reader.scannedLength(byteBuffer.remaining());
+        } else {
+            reset();
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package org.framework.rodolfo.freire.git.asuna.packet.read;
 
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.nio.ByteBuffer;
 
-public class RawPacketReader implements PacketReader {
+public class RawPacketReader implements SlicePacketReader {
 
     public final static RawPacketReader INSTANCE = new RawPacketReader();
 
@@ -17,4 +18,8 @@ public class RawPacketReader implements PacketReader {
         return packet;
     }
 
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer) throws ProtocolViolationException {
+        return NIOUtils.slice(byteBuffer, byteBuffer.remaining());
+    }
+
 }
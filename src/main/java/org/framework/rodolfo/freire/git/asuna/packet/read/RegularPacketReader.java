@@ -5,7 +5,7 @@ import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.nio.ByteBuffer;
 
-public class RegularPacketReader implements PacketReader {
+public class RegularPacketReader implements SlicePacketReader {
 
     private final boolean m_bigEndian;
     private final int m_headerSize;
@@ -18,17 +18,26 @@ public class RegularPacketReader implements PacketReader {
     }
 
     public byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException {
-        if (byteBuffer.remaining() < m_headerSize) return null;
+        int length = nextLength(byteBuffer);
+        if (length < 0) return null;
+        byte[] packet = new byte[length];
+        byteBuffer.get(packet);
+        return packet;
+    }
+
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer) throws ProtocolViolationException {
+        int length = nextLength(byteBuffer);
+        if (length < 0) return null;
+        return NIOUtils.slice(byteBuffer, length);
+    }
+
+    private int nextLength(ByteBuffer byteBuffer) throws ProtocolViolationException {
+        if (byteBuffer.remaining() < m_headerSize) return -1;
         byteBuffer.mark();
         int length = NIOUtils.getPacketSizeFromByteBuffer(byteBuffer, m_headerSize, m_bigEndian);
-        if (byteBuffer.remaining() >= length) {
-            byte[] packet = new byte[length];
-            byteBuffer.get(packet);
-            return packet;
-        } else {
-            byteBuffer.reset();
-            return null;
-        }
+        if (byteBuffer.remaining() >= length) return length;
+        byteBuffer.reset();
+        return -1;
     }
 
 }
@@ -0,0 +1,16 @@
+package org.framework.rodolfo.freire.git.asuna.packet.read;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+
+import java.nio.ByteBuffer;
+
+// Resumes the search for a packet end behind the bytes an earlier call already ruled out, the caller keeps that count per connection.
+public interface ResumablePacketReader extends SlicePacketReader {
+
+    byte[] nextPacket(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException;
+
+    ByteBuffer nextSlice(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException;
+
+    int scannedLength(int unread);
+
+}
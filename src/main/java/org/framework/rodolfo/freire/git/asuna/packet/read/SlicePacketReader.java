@@ -0,0 +1,11 @@
+package org.framework.rodolfo.freire.git.asuna.packet.read;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+
+import java.nio.ByteBuffer;
+
+public interface SlicePacketReader extends PacketReader {
+
+    ByteBuffer nextSlice(ByteBuffer byteBuffer) throws ProtocolViolationException;
+
+}
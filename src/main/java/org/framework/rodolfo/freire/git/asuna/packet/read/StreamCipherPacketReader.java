@@ -2,6 +2,8 @@ package org.framework.rodolfo.freire.git.asuna.packet.read;
 
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
 
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+
 import javax.crypto.Cipher;
 import javax.crypto.ShortBufferException;
 import java.nio.ByteBuffer;
@@ -10,19 +12,26 @@ public class StreamCipherPacketReader implements PacketReader {
 
     private final Cipher mCipher;
     private final PacketReader mReader;
+    private final ByteBufferPool mBufferPool;
     private ByteBuffer mInternalBuffer;
 
     public StreamCipherPacketReader(Cipher cipher, PacketReader reader) {
+        this(cipher, reader, ByteBufferPool.SHARED);
+    }
+
+    public StreamCipherPacketReader(Cipher cipher, PacketReader reader, ByteBufferPool bufferPool) {
         mCipher = cipher;
         mReader = reader;
+        mBufferPool = bufferPool;
     }
 
     public byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException {
         if (mInternalBuffer == null) {
-            mInternalBuffer = ByteBuffer.allocate(mCipher.getOutputSize(byteBuffer.remaining()));
+            mInternalBuffer = mBufferPool.acquire(mCipher.getOutputSize(byteBuffer.remaining()));
         } else {
-            ByteBuffer newBuffer = ByteBuffer.allocate(mCipher.getOutputSize(byteBuffer.remaining()) + mInternalBuffer.remaining());
+            ByteBuffer newBuffer = mBufferPool.acquire(mCipher.getOutputSize(byteBuffer.remaining()) + mInternalBuffer.remaining());
             newBuffer.put(mInternalBuffer);
+            mBufferPool.release(mInternalBuffer);
             mInternalBuffer = newBuffer;
         }
         try {
@@ -32,8 +41,17 @@ public class StreamCipherPacketReader implements PacketReader {
         }
         mInternalBuffer.flip();
         byte[] packet = mReader.nextPacket(mInternalBuffer);
-        if (mInternalBuffer.remaining() == 0) mInternalBuffer = null;
+        if (mInternalBuffer.remaining() == 0) {
+            mBufferPool.release(mInternalBuffer);
+            mInternalBuffer = null;
+        }
         return packet;
     }
 
+    public void release() {
+        mBufferPool.release(mInternalBuffer);
+        mInternalBuffer = null;
+        mReader.release();
+    }
+
 }
@@ -1,30 +1,48 @@
 package org.framework.rodolfo.freire.git.asuna.packet.read;
 
-import lombok.extern.slf4j.Slf4j;
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-@Slf4j
-public class WordDelimiterPacketReader implements PacketReader {
+public class WordDelimiterPacketReader implements ResumablePacketReader {
 
-    private final String mDelimiter;
+    private final byte[] mDelimiter;
+    private final int[] mSkip;
     private volatile int mMaxPacketSize;
 
-
     public WordDelimiterPacketReader(String delimiter) {
         this(delimiter, -1);
     }
 
     public WordDelimiterPacketReader(String delimiter, int maxPacketSize) {
+        this(delimiter.getBytes(StandardCharsets.UTF_8), maxPacketSize);
+    }
+
+    public WordDelimiterPacketReader(byte[] delimiter) {
+        this(delimiter, -1);
+    }
+
+    public WordDelimiterPacketReader(byte[] delimiter, int maxPacketSize) {
         if (maxPacketSize < 1 && maxPacketSize != -1) {
             throw new IllegalArgumentException("Max packet size must be larger that 1, was: " + maxPacketSize);
         }
-        mDelimiter = delimiter;
+        if (delimiter.length == 0) throw new IllegalArgumentException("Delimiter must not be empty");
+        mDelimiter = delimiter.clone();
+        mSkip = new int[256];
+        Arrays.fill(mSkip, mDelimiter.length);
+        for (int i = 0; i < mDelimiter.length - 1; i++) {
+            mSkip[mDelimiter[i] & 0xFF] = mDelimiter.length - 1 - i;
+        }
         mMaxPacketSize = maxPacketSize;
     }
 
+    public byte[] getDelimiter() {
+        return mDelimiter.clone();
+    }
+
     public int getMaxPacketSize() {
         return mMaxPacketSize;
     }
@@ -34,22 +52,57 @@ public class WordDelimiterPacketReader implements PacketReader {
     }
 
     public byte[] nextPacket(ByteBuffer byteBuffer) throws ProtocolViolationException {
-        byteBuffer.mark();
-        int bytesRead = 0;
-        while (byteBuffer.remaining() > 0) {
-            String s = StandardCharsets.UTF_8.decode(byteBuffer).toString();
-            if (!s.isEmpty()) {
-                byte[] packet = new byte[bytesRead];
-                byteBuffer.reset();
-                byteBuffer.get(packet);
-                byteBuffer.get();
-                return packet;
+        return nextPacket(byteBuffer, 0);
+    }
+
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer) throws ProtocolViolationException {
+        return nextSlice(byteBuffer, 0);
+    }
+
+    public byte[] nextPacket(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int length = nextLength(byteBuffer, scanned);
+        if (length < 0) return null;
+        byte[] packet = new byte[length];
+        byteBuffer.get(packet);
+        byteBuffer.position(byteBuffer.position() + mDelimiter.length);
+        return packet;
+    }
+
+    public ByteBuffer nextSlice(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int length = nextLength(byteBuffer, scanned);
+        if (length < 0) return null;
+        ByteBuffer slice = NIOUtils.slice(byteBuffer, length);
+        byteBuffer.position(byteBuffer.position() + mDelimiter.length);
+        return slice;
+    }
+
+    // A search that found nothing ruled out every match position up to the last delimiter length minus one bytes.
+    public int scannedLength(int unread) {
+        return Math.max(0, unread - (mDelimiter.length - 1));
+    }
+
+    private int nextLength(ByteBuffer byteBuffer, int scanned) throws ProtocolViolationException {
+        int start = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        int last = mDelimiter.length - 1;
+        int from = start + Math.max(0, Math.min(scanned, limit - start));
+        while (from + last < limit) {
+            int i = last;
+            while (byteBuffer.get(from + i) == mDelimiter[i]) {
+                if (i == 0) {
+                    checkMaxPacketSize(from - start);
+                    return from - start;
+                }
+                i--;
             }
-            bytesRead++;
-            if (mMaxPacketSize > 0 && bytesRead > mMaxPacketSize)
-                throw new ProtocolViolationException("Packet exceeds max " + mMaxPacketSize);
+            from += mSkip[byteBuffer.get(from + last) & 0xFF];
         }
-        byteBuffer.reset();
-        return null;
+        checkMaxPacketSize(scannedLength(limit - start));
+        return -1;
+    }
+
+    private void checkMaxPacketSize(int length) throws ProtocolViolationException {
+        if (mMaxPacketSize > 0 && length > mMaxPacketSize)
+            throw new ProtocolViolationException("Packet exceeds max " + mMaxPacketSize);
     }
-}
\ No newline at end of file
+}
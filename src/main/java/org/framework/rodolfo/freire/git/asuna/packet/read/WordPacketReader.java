@@ -17,4 +17,12 @@ public class WordPacketReader extends WordDelimiterPacketReader {
     public WordPacketReader(String delimiter, int maxPacketSize) {
         super(delimiter, maxPacketSize);
     }
+
+    public WordPacketReader(byte[] delimiter) {
+        super(delimiter);
+    }
+
+    public WordPacketReader(byte[] delimiter, int maxPacketSize) {
+        super(delimiter, maxPacketSize);
+    }
 }
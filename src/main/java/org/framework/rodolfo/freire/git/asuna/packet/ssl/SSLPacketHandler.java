@@ -2,11 +2,13 @@ package org.framework.rodolfo.freire.git.asuna.packet.ssl;
 
 import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
 import org.framework.rodolfo.freire.git.asuna.packet.read.PacketReader;
+import org.framework.rodolfo.freire.git.asuna.packet.read.PacketScan;
 import org.framework.rodolfo.freire.git.asuna.packet.read.RawPacketReader;
 import org.framework.rodolfo.freire.git.asuna.packet.write.PacketWriter;
 import org.framework.rodolfo.freire.git.asuna.packet.write.RawPacketWriter;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOSocket;
 import org.framework.rodolfo.freire.git.asuna.socket.ssl.SSLSocketChannelResponder;
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
 import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import javax.net.ssl.SSLEngine;
@@ -14,6 +16,9 @@ import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
 import java.io.EOFException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -24,27 +29,47 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
     private final static ThreadLocal<ByteBuffer> SSL_BUFFER = new ThreadLocal<ByteBuffer>() {
         @Override
         protected ByteBuffer initialValue() {
-            return ByteBuffer.allocate(64 * 1024);
+            return ByteBuffer.allocateDirect(64 * 1024);
+        }
+    };
+
+    // Writes can now run from inside nextPacket, so wrapping must not clobber the unwrap buffer.
+    private final static ThreadLocal<ByteBuffer> SSL_WRAP_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(64 * 1024);
         }
     };
 
     private final SSLEngine sslEngine;
     private final NIOSocket nioSocket;
     private final SSLSocketChannelResponder sslSocketChannelResponder;
+    private final ByteBufferPool bufferPool;
+    private final Set<ByteBuffer[]> encryptedOutputs;
     private PacketReader packetReader;
+    private final PacketScan packetScan;
     private PacketWriter packetWriter;
     private ByteBuffer mPartialIncomingBuffer;
     private ByteBuffer[] mInitialOutBuffer;
     private boolean mSslInitiated;
+    private boolean mReleased;
 
     public SSLPacketHandler(SSLEngine engine, NIOSocket socket, SSLSocketChannelResponder responder) {
+        this(engine, socket, responder, ByteBufferPool.SHARED);
+    }
+
+    public SSLPacketHandler(SSLEngine engine, NIOSocket socket, SSLSocketChannelResponder responder, ByteBufferPool pool) {
         sslEngine = engine;
+        bufferPool = pool;
+        encryptedOutputs = Collections.newSetFromMap(new IdentityHashMap<>());
         nioSocket = socket;
         mPartialIncomingBuffer = null;
         packetWriter = RawPacketWriter.INSTANCE;
         packetReader = RawPacketReader.INSTANCE;
+        packetScan = new PacketScan();
         sslSocketChannelResponder = responder;
         mSslInitiated = false;
+        mReleased = false;
     }
 
     public PacketReader getReader() {
@@ -82,24 +107,42 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
             return packetReader.nextPacket(byteBuffer);
         }
 
+        if (mPartialIncomingBuffer != null) {
+            byte[] packet = packetScan.nextPacket(packetReader, mPartialIncomingBuffer);
+            if (mPartialIncomingBuffer.remaining() == 0) releaseBuffers();
+            if (packet != null) return packet;
+        }
+
         try {
             ByteBuffer targetBuffer = SSL_BUFFER.get();
-            targetBuffer.clear();
-            SSLEngineResult result = sslEngine.unwrap(byteBuffer, targetBuffer);
-            switch (result.getStatus()) {
-                case BUFFER_UNDERFLOW:
-                    return null;
-                case BUFFER_OVERFLOW:
-                    throw new ProtocolViolationException("SSL Buffer Overflow");
-                case CLOSED:
-                    sslSocketChannelResponder.connectionBroken(nioSocket, new EOFException("SSL Connection closed"));
-                    return null;
-                case OK:
-            }
+            // A packet may span several records, keep unwrapping until one is complete.
+            while (byteBuffer.hasRemaining()) {
+                targetBuffer.clear();
+                SSLEngineResult result = sslEngine.unwrap(byteBuffer, targetBuffer);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        return null;
+                    case BUFFER_OVERFLOW:
+                        throw new ProtocolViolationException("SSL Buffer Overflow");
+                    case CLOSED:
+                        sslSocketChannelResponder.connectionBroken(nioSocket, new EOFException("SSL Connection closed"));
+                        return null;
+                    case OK:
+                }
 
-            reactToHandshakeStatus(result.getHandshakeStatus());
+                reactToHandshakeStatus(result.getHandshakeStatus());
+
+                // Reacting may have written, failed and closed the socket.
+                if (mReleased) return null;
+
+                byte[] packet = retrieveDecryptedPacket(targetBuffer);
+
+                if (packet != null && packet != SKIP_PACKET) return packet;
+
+                if (result.bytesConsumed() == 0) return SKIP_PACKET;
+            }
 
-            return retrieveDecryptedPacket(targetBuffer);
+            return null;
 
         } catch (SSLException e) {
 
@@ -130,12 +173,52 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
 
         targetBuffer.flip();
 
-        mPartialIncomingBuffer = NIOUtils.join(mPartialIncomingBuffer, targetBuffer);
+        appendDecrypted(targetBuffer);
+
+        if (mPartialIncomingBuffer == null || mPartialIncomingBuffer.remaining() == 0) {
+            releaseBuffers();
+            return SKIP_PACKET;
+        }
+
+        byte[] packet = packetScan.nextPacket(packetReader, mPartialIncomingBuffer);
+        if (mPartialIncomingBuffer.remaining() == 0) releaseBuffers();
+        return packet;
 
-        if (mPartialIncomingBuffer == null || mPartialIncomingBuffer.remaining() == 0) return SKIP_PACKET;
+    }
 
-        return packetReader.nextPacket(mPartialIncomingBuffer);
+    private void appendDecrypted(ByteBuffer decrypted) {
+        if (mReleased || !decrypted.hasRemaining()) return;
+        ByteBuffer partial = mPartialIncomingBuffer;
+        if (partial == null) {
+            mPartialIncomingBuffer = NIOUtils.copy(decrypted, bufferPool);
+        } else if (partial.capacity() - partial.limit() >= decrypted.remaining()) {
+            int start = partial.position();
+            partial.position(partial.limit());
+            partial.limit(partial.capacity());
+            partial.put(decrypted);
+            partial.limit(partial.position());
+            partial.position(start);
+        } else {
+            // Grow geometrically so large packets are not copied once per record.
+            long size = Math.max((long) partial.remaining() + decrypted.remaining(), (long) partial.capacity() << 1);
+            ByteBuffer grown = bufferPool.acquire((int) Math.min(size, Integer.MAX_VALUE - 8));
+            grown.put(partial);
+            grown.put(decrypted);
+            grown.flip();
+            bufferPool.release(partial);
+            mPartialIncomingBuffer = grown;
+        }
+    }
 
+    public void releaseBuffers() {
+        bufferPool.release(mPartialIncomingBuffer);
+        mPartialIncomingBuffer = null;
+    }
+
+    public void release() {
+        mReleased = true;
+        releaseBuffers();
+        packetReader.release();
     }
 
     public ByteBuffer[] write(ByteBuffer[] byteBuffers) {
@@ -146,12 +229,18 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
         if (sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
             if (!NIOUtils.isEmpty(byteBuffers)) {
 
-                mInitialOutBuffer = NIOUtils.concat(mInitialOutBuffer, packetWriter.write(byteBuffers));
+                // The packet completes before the handshake does, so its buffers may be reused by then.
+                ByteBuffer[] written = packetWriter.write(byteBuffers);
+                ByteBuffer pending = ByteBuffer.allocate((int) NIOUtils.remaining(written));
+                for (ByteBuffer buffer : written) pending.put(buffer);
+                pending.flip();
+                packetWriter.release(written);
+                mInitialOutBuffer = NIOUtils.concat(mInitialOutBuffer, pending);
                 byteBuffers = new ByteBuffer[0];
 
             }
 
-            ByteBuffer buffer = SSL_BUFFER.get();
+            ByteBuffer buffer = SSL_WRAP_BUFFER.get();
 
             ByteBuffer[] buffers = null;
 
@@ -163,28 +252,33 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
                     buffer.clear();
                     result = sslEngine.wrap(byteBuffers, buffer);
                     buffer.flip();
-                    buffers = NIOUtils.concat(buffers, NIOUtils.copy(buffer));
+                    buffers = NIOUtils.concat(buffers, NIOUtils.copy(buffer, bufferPool));
                 }
 
                 if (result == null) return null;
 
-                if (result.getStatus() != SSLEngineResult.Status.OK)
+                if (result.getStatus() != SSLEngineResult.Status.OK && !sslEngine.isOutboundDone())
                     throw new SSLException("Unexpectedly not ok wrapping handshake data, was " + result.getStatus());
 
                 reactToHandshakeStatus(result.getHandshakeStatus());
             } catch (SSLException e) {
+                if (buffers != null) releaseEncrypted(buffers);
                 throw new RuntimeException(e);
             }
+            encryptedOutputs.add(buffers);
             return buffers;
         }
 
-        ByteBuffer buffer = SSL_BUFFER.get();
+        ByteBuffer buffer = SSL_WRAP_BUFFER.get();
         buffer.clear();
 
+        // Only buffers the inner writer produced go back to it, handshake-time copies are plain heap buffers.
+        ByteBuffer[] written = null;
         if (NIOUtils.isEmpty(byteBuffers)) {
             if (mInitialOutBuffer == null) return null;
         } else {
-            byteBuffers = packetWriter.write(byteBuffers);
+            written = packetWriter.write(byteBuffers);
+            byteBuffers = written;
         }
         if (mInitialOutBuffer != null) {
             byteBuffers = NIOUtils.concat(mInitialOutBuffer, byteBuffers);
@@ -192,21 +286,42 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
         }
 
         ByteBuffer[] encrypted = null;
-        while (!NIOUtils.isEmpty(byteBuffers)) {
+        try {
+            while (!NIOUtils.isEmpty(byteBuffers)) {
+
+                buffer.clear();
+                try {
+                    sslEngine.wrap(byteBuffers, buffer);
+                } catch (SSLException e) {
+                    if (encrypted != null) releaseEncrypted(encrypted);
+                    throw new RuntimeException(e);
+                }
+                buffer.flip();
+
+                encrypted = NIOUtils.concat(encrypted, NIOUtils.copy(buffer, bufferPool));
 
-            buffer.clear();
-            try {
-                sslEngine.wrap(byteBuffers, buffer);
-            } catch (SSLException e) {
-                throw new RuntimeException(e);
             }
-            buffer.flip();
+        } finally {
+            if (written != null) packetWriter.release(written);
+        }
 
-            encrypted = NIOUtils.concat(encrypted, NIOUtils.copy(buffer));
+        if (encrypted != null) encryptedOutputs.add(encrypted);
+        return encrypted;
+    }
 
+    @Override
+    public void release(ByteBuffer[] byteBuffers) {
+        if (encryptedOutputs.remove(byteBuffers)) {
+            releaseEncrypted(byteBuffers);
+        } else {
+            packetWriter.release(byteBuffers);
         }
+    }
 
-        return encrypted;
+    private void releaseEncrypted(ByteBuffer[] byteBuffers) {
+        for (ByteBuffer buffer : byteBuffers) {
+            bufferPool.release(buffer);
+        }
     }
 
     public SSLEngine getSSLEngine() {
@@ -219,10 +334,9 @@ public class SSLPacketHandler implements PacketReader, PacketWriter {
         reactToHandshakeStatus(sslEngine.getHandshakeStatus());
     }
 
+    // The close_notify is wrapped by the next write.
     public void closeEngine() {
-        if (!mSslInitiated) return;
-        sslEngine.closeOutbound();
-        sslSocketChannelResponder.write(new byte[0]);
+        if (mSslInitiated) sslEngine.closeOutbound();
     }
 
     public boolean isEncrypted() {
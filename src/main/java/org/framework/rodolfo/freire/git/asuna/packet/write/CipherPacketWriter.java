@@ -1,16 +1,24 @@
 package org.framework.rodolfo.freire.git.asuna.packet.write;
 
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+
 import javax.crypto.Cipher;
 import java.nio.ByteBuffer;
 
 public class CipherPacketWriter implements PacketWriter {
 
     private final Cipher mCipher;
+    private final ByteBufferPool mBufferPool;
     private PacketWriter mPacketWriter;
 
     public CipherPacketWriter(Cipher cipher, PacketWriter packetWriter) {
+        this(cipher, packetWriter, ByteBufferPool.SHARED);
+    }
+
+    public CipherPacketWriter(Cipher cipher, PacketWriter packetWriter, ByteBufferPool bufferPool) {
         mCipher = cipher;
         mPacketWriter = packetWriter;
+        mBufferPool = bufferPool;
     }
 
     public PacketWriter getPacketWriter() {
@@ -26,7 +34,7 @@ public class CipherPacketWriter implements PacketWriter {
         ByteBuffer[] resultBuffer = new ByteBuffer[byteBuffer.length];
         try {
             for (int i = 0; i < byteBuffer.length; i++) {
-                resultBuffer[i] = ByteBuffer.allocate(mCipher.getOutputSize(byteBuffer[i].remaining()));
+                resultBuffer[i] = mBufferPool.acquire(mCipher.getOutputSize(byteBuffer[i].remaining()));
                 if (i == byteBuffer.length - 1) {
                     mCipher.doFinal(byteBuffer[i], resultBuffer[i]);
                 } else {
@@ -36,8 +44,18 @@ public class CipherPacketWriter implements PacketWriter {
                 resultBuffer[i].flip();
             }
         } catch (Exception e) {
+            release(resultBuffer);
             throw new RuntimeException(e);
+        } finally {
+            mPacketWriter.release(byteBuffer);
         }
         return resultBuffer;
     }
+
+    @Override
+    public void release(ByteBuffer[] byteBuffers) {
+        for (ByteBuffer buffer : byteBuffers) {
+            mBufferPool.release(buffer);
+        }
+    }
 }
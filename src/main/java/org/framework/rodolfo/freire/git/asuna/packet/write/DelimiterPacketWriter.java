@@ -9,11 +9,10 @@ public class DelimiterPacketWriter implements PacketWriter {
     private final ByteBuffer mEndByte;
 
     public DelimiterPacketWriter(byte endByte) {
-        mEndByte = ByteBuffer.wrap(new byte[]{endByte});
+        mEndByte = ByteBuffer.wrap(new byte[]{endByte}).asReadOnlyBuffer();
     }
 
     public ByteBuffer[] write(ByteBuffer[] byteBuffer) {
-        mEndByte.rewind();
-        return NIOUtils.concat(byteBuffer, mEndByte);
+        return NIOUtils.concat(byteBuffer, mEndByte.duplicate());
     }
 }
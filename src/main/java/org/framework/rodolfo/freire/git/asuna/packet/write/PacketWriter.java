@@ -4,4 +4,7 @@ import java.nio.ByteBuffer;
 
 public interface PacketWriter {
     ByteBuffer[] write(ByteBuffer[] byteBuffer);
+
+    default void release(ByteBuffer[] byteBuffers) {
+    }
 }
@@ -8,20 +8,21 @@ import java.nio.ByteBuffer;
 public class RegularPacketWriter implements PacketWriter {
 
     private final boolean m_bigEndian;
-    private final ByteBuffer m_header;
+    private final int m_headerSize;
 
     public RegularPacketWriter(int headerSize, boolean bigEndian) {
         if (headerSize < 1 || headerSize > 4)
             throw new IllegalArgumentException("Header must be between 1 and 4 bytes long.");
         m_bigEndian = bigEndian;
-        m_header = ByteBuffer.allocate(headerSize);
+        m_headerSize = headerSize;
     }
 
     public ByteBuffer[] write(ByteBuffer[] byteBuffers) {
-        m_header.clear();
-        NIOUtils.setPacketSizeInByteBuffer(m_header, m_header.capacity(), (int) NIOUtils.remaining(byteBuffers), m_bigEndian);
-        m_header.flip();
-        return NIOUtils.concat(m_header, byteBuffers);
+        // Several packets can be queued for one gathering write, so each gets its own header.
+        ByteBuffer header = ByteBuffer.allocate(m_headerSize);
+        NIOUtils.setPacketSizeInByteBuffer(header, m_headerSize, (int) NIOUtils.remaining(byteBuffers), m_bigEndian);
+        header.flip();
+        return NIOUtils.concat(header, byteBuffers);
     }
 
 }
@@ -10,11 +10,16 @@ public class WordDelimiterPacketWriter implements PacketWriter {
     private final ByteBuffer mEndByte;
 
     public WordDelimiterPacketWriter(String mEndByte) {
-        this.mEndByte = ByteBuffer.wrap(mEndByte.getBytes(StandardCharsets.UTF_8));;
+        this(mEndByte.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public WordDelimiterPacketWriter(byte[] mEndByte) {
+        if (mEndByte.length == 0) throw new IllegalArgumentException("Delimiter must not be empty");
+        this.mEndByte = ByteBuffer.wrap(mEndByte.clone()).asReadOnlyBuffer();
     }
 
     public ByteBuffer[] write(ByteBuffer[] byteBuffer) {
-        mEndByte.rewind();
-        return NIOUtils.concat(byteBuffer, mEndByte);
+        // Packets waiting to be written each need their own position on the delimiter.
+        return NIOUtils.concat(byteBuffer, mEndByte.duplicate());
     }
 }
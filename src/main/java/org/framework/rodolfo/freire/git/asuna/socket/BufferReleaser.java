@@ -0,0 +1,17 @@
+package org.framework.rodolfo.freire.git.asuna.socket;
+
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+
+public interface BufferReleaser {
+
+    BufferReleaser NONE = byteBuffers -> {
+    };
+
+    BufferReleaser POOLED = byteBuffers -> {
+        for (ByteBuffer buffer : byteBuffers) ByteBufferPool.SHARED.release(buffer);
+    };
+
+    void release(ByteBuffer[] byteBuffers);
+}
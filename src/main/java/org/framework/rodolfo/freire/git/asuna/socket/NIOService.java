@@ -9,26 +9,64 @@ import org.framework.rodolfo.freire.git.asuna.socket.ssl.NIOServerSocketSSL;
 import org.framework.rodolfo.freire.git.asuna.socket.ssl.NIOSocketSSL;
 import org.framework.rodolfo.freire.git.asuna.socket.ssl.SSLServerSocketChannelResponder;
 import org.framework.rodolfo.freire.git.asuna.socket.ssl.SSLSocketChannelResponder;
+import org.framework.rodolfo.freire.git.asuna.socket.write.WriteEntryPool;
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+import org.framework.rodolfo.freire.git.asuna.util.MpscArrayQueue;
 import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
+import org.framework.rodolfo.freire.git.asuna.util.SelectedKeySet;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NIOService {
 
     public final static int DEFAULT_IO_BUFFER_SIZE = 64 * 1024;
+    public final static int DEFAULT_QUEUE_CAPACITY = 16 * 1024;
+    public final static int DEFAULT_MAX_RECEIVE_BUFFER_SIZE = 16 * 1024 * 1024;
+    public final static int DEFAULT_MAX_READS_PER_SOCKET = 16;
 
     private final Selector selector;
-    private final Queue<Runnable> internalEventQueue;
+    private final SelectedKeySet selectedKeySet;
+    private final MpscArrayQueue<Runnable> internalEventQueue;
+    private final Queue<Runnable> overflowEventQueue;
+    private final AtomicBoolean parked;
+    private final PriorityQueue<TimerEvent> timerQueue;
+    private long timerSequence;
+    private volatile Thread loopThread;
+    private volatile int maxTasksPerSelect;
+    private volatile long maxTaskTimePerSelect;
+    private volatile int maxReadsPerSocket;
+    private volatile int maxReadBytesPerSocket;
+    private final AtomicLong inboundBytes;
+    private final AtomicBoolean inboundSuspended;
+    private final Runnable resumeReadingEvent;
+    private volatile long inboundLowWatermark;
+    private volatile long inboundHighWatermark;
+    private int tasksRemaining;
+    private long taskDeadline;
+    private CompletableFuture<Long> drainFuture;
+    private long drainDeadline;
+    private long drainDropped;
+    private final AtomicInteger socketCount;
+    private volatile ByteBufferPool bufferPool;
+    private final WriteEntryPool writeEntryPool;
+    private volatile int maxReceiveBufferSize;
     private ByteBuffer sharedBuffer;
     private ExceptionObserver exceptionObserver;
 
@@ -37,34 +75,96 @@ public class NIOService {
     }
 
     public NIOService(int ioBufferSize) throws IOException {
+        this(ioBufferSize, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public NIOService(int ioBufferSize, int queueCapacity) throws IOException {
         selector = Selector.open();
-        internalEventQueue = new ConcurrentLinkedQueue<>();
+        selectedKeySet = installSelectedKeySet(selector);
+        internalEventQueue = new MpscArrayQueue<>(queueCapacity);
+        overflowEventQueue = new ConcurrentLinkedQueue<>();
+        parked = new AtomicBoolean(false);
+        timerQueue = new PriorityQueue<>();
+        timerSequence = 0;
+        socketCount = new AtomicInteger(0);
+        bufferPool = ByteBufferPool.SHARED;
+        writeEntryPool = new WriteEntryPool();
+        maxReceiveBufferSize = DEFAULT_MAX_RECEIVE_BUFFER_SIZE;
+        maxTasksPerSelect = -1;
+        maxTaskTimePerSelect = -1;
+        maxReadsPerSocket = DEFAULT_MAX_READS_PER_SOCKET;
+        maxReadBytesPerSocket = -1;
+        inboundBytes = new AtomicLong(0L);
+        inboundSuspended = new AtomicBoolean(false);
+        resumeReadingEvent = new ResumeReadingEvent();
+        inboundLowWatermark = -1;
+        inboundHighWatermark = -1;
         exceptionObserver = ExceptionObserver.DEFAULT;
         setBufferSize(ioBufferSize);
     }
 
-    public synchronized void selectBlocking() throws IOException {
-        executeQueue();
-        if (selector.select() > 0) {
+    public void selectBlocking() throws IOException {
+        select(0);
+    }
+
+    public void selectNonBlocking() throws IOException {
+        selectNow();
+    }
+
+    public void selectBlocking(long timeout) throws IOException {
+        select(timeout);
+    }
+
+    // Like the select methods above, returning the queued events run plus the keys selected.
+    public int selectNow() throws IOException {
+        beginSelect();
+        int handled = executeQueue();
+        int selected = selector.selectNow();
+        if (selected > 0) {
             handleSelectedKeys();
         }
-        executeQueue();
+        handled += selected + executeQueue() + runTimers();
+        checkDrained();
+        return handled;
     }
 
-    public synchronized void selectNonBlocking() throws IOException {
-        executeQueue();
-        if (selector.selectNow() > 0) {
+    public int select(long timeout) throws IOException {
+        beginSelect();
+        int handled = executeQueue();
+        int selected = selectKeys(timeout);
+        if (selected > 0) {
             handleSelectedKeys();
         }
-        executeQueue();
+        handled += selected + executeQueue() + runTimers();
+        checkDrained();
+        return handled;
     }
 
-    public synchronized void selectBlocking(long timeout) throws IOException {
-        executeQueue();
-        if (selector.select(timeout) > 0) {
-            handleSelectedKeys();
+    private void beginSelect() {
+        loopThread = Thread.currentThread();
+        tasksRemaining = maxTasksPerSelect;
+        taskDeadline = maxTaskTimePerSelect > 0 ? System.nanoTime() + maxTaskTimePerSelect : 0;
+    }
+
+    private int selectKeys(long timeout) throws IOException {
+        if (drainFuture != null) {
+            long timeLeft = Math.max(1, drainDeadline - System.currentTimeMillis());
+            timeout = timeout == 0 ? timeLeft : Math.min(timeout, timeLeft);
+        }
+        TimerEvent timer = timerQueue.peek();
+        if (timer != null) {
+            long nanosLeft = timer.deadline - System.nanoTime();
+            if (nanosLeft <= 0) return selector.selectNow();
+            long timeLeft = (nanosLeft + 999999) / 1000000;
+            timeout = timeout == 0 ? timeLeft : Math.min(timeout, timeLeft);
+        }
+        parked.set(true);
+        try {
+            if (hasQueuedEvents()) return selector.selectNow();
+            return timeout == 0 ? selector.select() : selector.select(timeout);
+        } finally {
+            parked.set(false);
         }
-        executeQueue();
     }
 
     public NIOSocket openSocket(String host, int port) throws IOException {
@@ -108,10 +208,11 @@ public class NIOService {
     }
 
     public NIOServerSocketSSL openSSLServerSocket(SSLContext sslContext, InetSocketAddress address, int backlog) throws IOException {
-        ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.socket().setReuseAddress(true);
-        channel.socket().bind(address, backlog);
-        channel.configureBlocking(false);
+        return openSSLServerSocket(sslContext, address, backlog, false);
+    }
+
+    public NIOServerSocketSSL openSSLServerSocket(SSLContext sslContext, InetSocketAddress address, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = bindServerSocketChannel(address, backlog, reusePort);
         SSLServerSocketChannelResponder channelResponder = new SSLServerSocketChannelResponder(sslContext, this, channel, address);
         queue(new RegisterChannelEvent(channelResponder));
         return channelResponder;
@@ -119,35 +220,191 @@ public class NIOService {
 
 
     public NIOServerSocket openServerSocket(InetSocketAddress address, int backlog) throws IOException {
-        ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.socket().setReuseAddress(true);
-        channel.socket().bind(address, backlog);
-        channel.configureBlocking(false);
+        return openServerSocket(address, backlog, false);
+    }
+
+    public NIOServerSocket openServerSocket(InetSocketAddress address, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = bindServerSocketChannel(address, backlog, reusePort);
         ServerSocketChannelResponder channelResponder = new ServerSocketChannelResponder(this, channel, address);
         queue(new RegisterChannelEvent(channelResponder));
         return channelResponder;
     }
 
+    private ServerSocketChannel bindServerSocketChannel(InetSocketAddress address, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            if (reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.socket().bind(address, backlog);
+            channel.configureBlocking(false);
+        } catch (IOException | RuntimeException e) {
+            NIOUtils.closeChannelSilently(channel);
+            throw e;
+        }
+        return channel;
+    }
+
 
     public NIOSocket registerSocketChannel(SocketChannel socketChannel, InetSocketAddress address) throws IOException {
         socketChannel.configureBlocking(false);
         SocketChannelResponder channelResponder = new SocketChannelResponder(this, socketChannel, address);
+        socketCount.incrementAndGet();
         queue(new RegisterChannelEvent(channelResponder));
         return channelResponder;
     }
 
-    private void executeQueue() {
+    public void socketClosed(long unsentBytes) {
+        socketCount.decrementAndGet();
+        // A socket closing on its own during a drain, on an error or a timeout, drops what it had left.
+        if (drainFuture != null) drainDropped += unsentBytes;
+    }
+
+    public int getSocketCount() {
+        return socketCount.get();
+    }
+
+    private static SelectedKeySet installSelectedKeySet(Selector selector) {
+        try {
+            Class<?> selectorClass = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!selectorClass.isInstance(selector)) return null;
+            Field selectedKeysField = selectorClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorClass.getDeclaredField("publicSelectedKeys");
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            SelectedKeySet keySet = new SelectedKeySet();
+            selectedKeysField.set(selector, keySet);
+            publicSelectedKeysField.set(selector, keySet);
+            return keySet;
+        } catch (Exception e) {
+            // Reflection is not permitted (e.g. sun.nio.ch not opened), keep the JDK key set.
+            return null;
+        }
+    }
+
+    public boolean isSelectedKeySetOptimized() {
+        return selectedKeySet != null;
+    }
+
+    private boolean hasQueuedEvents() {
+        return !internalEventQueue.isEmpty() || !overflowEventQueue.isEmpty();
+    }
+
+    private Runnable nextQueuedEvent() {
+        Runnable event = internalEventQueue.poll();
+        return event != null ? event : overflowEventQueue.poll();
+    }
+
+    private int executeQueue() {
+        int handled = 0;
         Runnable event;
-        while ((event = internalEventQueue.poll()) != null) {
+        while (hasTaskBudget(handled) && (event = nextQueuedEvent()) != null) {
+            handled++;
+            if (tasksRemaining > 0) tasksRemaining--;
             try {
                 event.run();
             } catch (Throwable t) {
                 notifyException(t);
             }
         }
+        return handled;
+    }
+
+    private boolean hasTaskBudget(int handled) {
+        if (tasksRemaining == 0) return false;
+        return taskDeadline == 0 || (handled & 15) != 0 || System.nanoTime() < taskDeadline;
+    }
+
+    public int getMaxTasksPerSelect() {
+        return maxTasksPerSelect;
+    }
+
+    public void setMaxTasksPerSelect(int maxTasksPerSelect) {
+        if (maxTasksPerSelect < 1 && maxTasksPerSelect != -1) {
+            throw new IllegalArgumentException("Task budget must be at least 1, was: " + maxTasksPerSelect);
+        }
+        this.maxTasksPerSelect = maxTasksPerSelect;
+    }
+
+    public long getMaxTaskTimePerSelect() {
+        return maxTaskTimePerSelect;
+    }
+
+    public void setMaxTaskTimePerSelect(long maxTaskTimePerSelect) {
+        if (maxTaskTimePerSelect < 1 && maxTaskTimePerSelect != -1) {
+            throw new IllegalArgumentException("Task time budget must be at least 1ns, was: " + maxTaskTimePerSelect);
+        }
+        this.maxTaskTimePerSelect = maxTaskTimePerSelect;
+    }
+
+    public int getMaxReadsPerSocket() {
+        return maxReadsPerSocket;
+    }
+
+    public void setMaxReadsPerSocket(int maxReadsPerSocket) {
+        if (maxReadsPerSocket < 1 && maxReadsPerSocket != -1) {
+            throw new IllegalArgumentException("Read budget must be at least 1, was: " + maxReadsPerSocket);
+        }
+        this.maxReadsPerSocket = maxReadsPerSocket;
+    }
+
+    public int getMaxReadBytesPerSocket() {
+        return maxReadBytesPerSocket;
+    }
+
+    public void setMaxReadBytesPerSocket(int maxReadBytesPerSocket) {
+        if (maxReadBytesPerSocket < 1 && maxReadBytesPerSocket != -1) {
+            throw new IllegalArgumentException("Read byte budget must be at least 1, was: " + maxReadBytesPerSocket);
+        }
+        this.maxReadBytesPerSocket = maxReadBytesPerSocket;
+    }
+
+    public long getInboundBytes() {
+        return inboundBytes.get();
+    }
+
+    public long getInboundLowWatermark() {
+        return inboundLowWatermark;
+    }
+
+    public long getInboundHighWatermark() {
+        return inboundHighWatermark;
+    }
+
+    public void setInboundWatermarks(long lowWatermark, long highWatermark) {
+        NIOUtils.checkWatermarks(lowWatermark, highWatermark);
+        inboundLowWatermark = lowWatermark;
+        inboundHighWatermark = highWatermark;
+        if (highWatermark == -1 || inboundBytes.get() <= lowWatermark) {
+            if (inboundSuspended.compareAndSet(true, false)) queue(resumeReadingEvent);
+        }
+    }
+
+    public boolean isReadingSuspended() {
+        return inboundSuspended.get();
+    }
+
+    public void inboundReceived(long bytes) {
+        long pending = inboundBytes.addAndGet(bytes);
+        long highWatermark = inboundHighWatermark;
+        if (highWatermark == -1 || pending < highWatermark) return;
+        if (inboundSuspended.compareAndSet(false, true)) {
+            // Recheck, the application may have caught up before the flag was set.
+            inboundConsumed(0);
+        }
+    }
+
+    public void inboundConsumed(long bytes) {
+        long pending = inboundBytes.addAndGet(-bytes);
+        if (pending <= inboundLowWatermark && inboundSuspended.compareAndSet(true, false)) {
+            queue(resumeReadingEvent);
+        }
     }
 
     private void handleSelectedKeys() {
+        if (selectedKeySet != null) {
+            handleOptimizedSelectedKeys();
+            return;
+        }
         for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
             SelectionKey key = it.next();
             it.remove();
@@ -159,19 +416,66 @@ public class NIOService {
         }
     }
 
+    private void handleOptimizedSelectedKeys() {
+        try {
+            for (int i = 0; i < selectedKeySet.size(); i++) {
+                SelectionKey key = selectedKeySet.get(i);
+                if (!key.isValid()) continue;
+                try {
+                    handleKey(key);
+                } catch (Throwable t) {
+                    notifyException(t);
+                }
+            }
+        } finally {
+            selectedKeySet.reset();
+        }
+    }
+
     public int getBufferSize() {
         return sharedBuffer.capacity();
     }
 
     public void setBufferSize(int newBufferSize) {
         if (newBufferSize < 256) throw new IllegalArgumentException("The buffer must at least hold 256 bytes");
-        sharedBuffer = ByteBuffer.allocate(newBufferSize);
+        sharedBuffer = ByteBuffer.allocateDirect(newBufferSize);
     }
 
     public ByteBuffer getSharedBuffer() {
         return sharedBuffer;
     }
 
+    public int getMaxReceiveBufferSize() {
+        return maxReceiveBufferSize;
+    }
+
+    public void setMaxReceiveBufferSize(int maxReceiveBufferSize) {
+        if (maxReceiveBufferSize < 256 && maxReceiveBufferSize != -1) {
+            throw new IllegalArgumentException("Max receive buffer size must be at least 256 bytes, was: " + maxReceiveBufferSize);
+        }
+        this.maxReceiveBufferSize = maxReceiveBufferSize;
+    }
+
+    public ByteBuffer acquireReadBuffer(int size) {
+        return bufferPool.acquire(size);
+    }
+
+    public void releaseReadBuffer(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool == null ? ByteBufferPool.SHARED : bufferPool;
+    }
+
+    public WriteEntryPool getWriteEntryPool() {
+        return writeEntryPool;
+    }
+
     private void handleKey(SelectionKey key) {
         ChannelResponder responder = (ChannelResponder) key.attachment();
         try {
@@ -194,21 +498,84 @@ public class NIOService {
 
     public void close() {
         if (!isOpen()) return;
-        queue(new ShutdownEvent());
+        enqueue(new ShutdownEvent(null));
     }
 
+    public CompletableFuture<Long> drain(long timeout) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!isOpen()) {
+            future.complete(0L);
+        } else {
+            enqueue(new DrainEvent(future, System.currentTimeMillis() + timeout));
+        }
+        return future;
+    }
+
+    private void checkDrained() {
+        if (drainFuture == null) return;
+        if (socketCount.get() == 0 || System.currentTimeMillis() >= drainDeadline) {
+            new ShutdownEvent(drainFuture).run();
+            drainFuture = null;
+        }
+    }
+
+
+    public void executeLater(Runnable event, long nanoDelay) {
+        long deadline = System.nanoTime() + nanoDelay;
+        queue(() -> timerQueue.add(new TimerEvent(event, deadline, timerSequence++)));
+    }
+
+    // Timers share the task budget, the ones left due keep the next select from blocking.
+    private int runTimers() {
+        int handled = 0;
+        long now = System.nanoTime();
+        TimerEvent timer;
+        while (hasTaskBudget(handled) && (timer = timerQueue.peek()) != null && timer.deadline - now <= 0) {
+            timerQueue.poll();
+            handled++;
+            if (tasksRemaining > 0) tasksRemaining--;
+            try {
+                timer.event.run();
+            } catch (Throwable t) {
+                notifyException(t);
+            }
+        }
+        return handled;
+    }
 
     public boolean isOpen() {
         return selector.isOpen();
     }
 
+    public boolean inEventLoop() {
+        return loopThread == Thread.currentThread();
+    }
+
     public void queue(Runnable event) {
-        internalEventQueue.add(event);
-        wakeup();
+        if (inEventLoop()) {
+            try {
+                event.run();
+            } catch (Throwable t) {
+                notifyException(t);
+            }
+            return;
+        }
+        enqueue(event);
+    }
+
+    private void enqueue(Runnable event) {
+        if (!overflowEventQueue.isEmpty() || !internalEventQueue.offer(event)) {
+            overflowEventQueue.add(event);
+        }
+        if (parked.compareAndSet(true, false)) {
+            selector.wakeup();
+        }
     }
 
     public Queue<Runnable> getQueue() {
-        return new LinkedList<>(internalEventQueue);
+        Queue<Runnable> queue = new LinkedList<>(internalEventQueue.snapshot());
+        queue.addAll(overflowEventQueue);
+        return queue;
     }
 
     public void wakeup() {
@@ -242,6 +609,8 @@ public class NIOService {
                 SelectionKey key = mChannelResponder.getChannel().register(selector, mChannelResponder.getChannel().validOps());
                 mChannelResponder.setKey(key);
                 key.attach(mChannelResponder);
+                // The drain already walked the keys, a channel registered after it has to drain on its own.
+                if (drainFuture != null) mChannelResponder.drain();
             } catch (Exception e) {
                 mChannelResponder.close(e);
             }
@@ -253,11 +622,84 @@ public class NIOService {
         }
     }
 
-    private class ShutdownEvent implements Runnable {
+    private class DrainEvent implements Runnable {
+        private final CompletableFuture<Long> m_future;
+        private final long m_deadline;
+
+        private DrainEvent(CompletableFuture<Long> future, long deadline) {
+            m_future = future;
+            m_deadline = deadline;
+        }
+
+        public void run() {
+            if (!isOpen()) {
+                m_future.complete(0L);
+                return;
+            }
+            if (drainFuture != null) {
+                drainFuture.whenComplete((dropped, e) -> m_future.complete(dropped == null ? 0L : dropped));
+                return;
+            }
+            drainFuture = m_future;
+            drainDeadline = m_deadline;
+            drainDropped = 0;
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    ((ChannelResponder) key.attachment()).drain();
+                } catch (Exception e) {
+                    notifyException(e);
+                }
+            }
+        }
+    }
+
+    private class ResumeReadingEvent implements Runnable {
         public void run() {
             if (!isOpen()) return;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof SocketChannelResponder) {
+                    ((SocketChannelResponder) key.attachment()).updateReadInterest();
+                }
+            }
+        }
+    }
+
+    private static class TimerEvent implements Comparable<TimerEvent> {
+        private final Runnable event;
+        private final long deadline;
+        private final long sequence;
+
+        private TimerEvent(Runnable event, long deadline, long sequence) {
+            this.event = event;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(TimerEvent o) {
+            long difference = deadline - o.deadline;
+            if (difference != 0) return difference < 0 ? -1 : 1;
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private class ShutdownEvent implements Runnable {
+        private final CompletableFuture<Long> m_future;
+
+        private ShutdownEvent(CompletableFuture<Long> future) {
+            m_future = future;
+        }
+
+        public void run() {
+            if (!isOpen()) {
+                if (m_future != null) m_future.complete(0L);
+                return;
+            }
+            long droppedBytes = drainDropped;
             for (SelectionKey key : selector.keys()) {
                 try {
+                    if (key.attachment() instanceof SocketChannelResponder) {
+                        droppedBytes += ((SocketChannelResponder) key.attachment()).getPendingWriteBytes();
+                    }
                     NIOUtils.cancelKeySilently(key);
                     ((ChannelResponder) key.attachment()).close();
                 } catch (Exception e) {
@@ -269,6 +711,11 @@ public class NIOService {
             } catch (IOException e) {
                 // Swallow exceptions.
             }
+            timerQueue.clear();
+            if (bufferPool.isLeakDetectionEnabled()) {
+                bufferPool.reportLeaks(NIOService.this::notifyException);
+            }
+            if (m_future != null) m_future.complete(droppedBytes);
         }
     }
 }
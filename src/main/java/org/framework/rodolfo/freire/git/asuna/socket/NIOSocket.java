@@ -3,14 +3,56 @@ package org.framework.rodolfo.freire.git.asuna.socket;
 import org.framework.rodolfo.freire.git.asuna.packet.read.PacketReader;
 import org.framework.rodolfo.freire.git.asuna.packet.write.PacketWriter;
 
+import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 
 public interface NIOSocket extends NIOAbstractSocket {
 
+    int PRIORITY_CONTROL = 0;
+
+    int PRIORITY_NORMAL = 1;
+
+    int PRIORITY_BULK = 2;
+
     boolean write(byte[] packet);
 
     boolean write(byte[] packet, Object tag);
 
+    boolean write(byte[] packet, Object tag, int priority);
+
+    boolean write(ByteBuffer packet);
+
+    boolean write(ByteBuffer packet, Object tag);
+
+    boolean write(ByteBuffer[] packet, Object tag);
+
+    boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser);
+
+    boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser, int priority);
+
+    boolean writeNoFlush(byte[] packet);
+
+    boolean writeNoFlush(byte[] packet, Object tag);
+
+    boolean writeNoFlush(ByteBuffer[] packet, Object tag, BufferReleaser releaser);
+
+    void flush();
+
+    void setFlushWindow(int maxBytes, long maxDelayMicros);
+
+    boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag) throws IOException;
+
+    boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag, int priority) throws IOException;
+
+    boolean sendFile(Path path, long offset, long length, Object tag) throws IOException;
+
+    boolean sendFile(Path path, long offset, long length, Object tag, int priority) throws IOException;
+
+    void setLaneWeights(int normalWeight, int bulkWeight);
+
     void queue(Runnable runnable);
 
     long getBytesRead();
@@ -25,6 +67,10 @@ public interface NIOSocket extends NIOAbstractSocket {
 
     void setMaxQueueSize(int maxQueueSize);
 
+    void setWriteWatermarks(long lowWatermark, long highWatermark);
+
+    boolean isWritable();
+
     void setPacketReader(PacketReader packetReader);
 
     void setPacketWriter(PacketWriter packetWriter);
@@ -33,6 +79,18 @@ public interface NIOSocket extends NIOAbstractSocket {
 
     void closeAfterWrite();
 
+    void suspendReading();
+
+    void resumeReading();
+
+    boolean isReadingSuspended();
+
+    long getInboundBytes();
+
+    void inboundConsumed(long bytes);
+
+    void setInboundWatermarks(long lowWatermark, long highWatermark);
+
     Socket socket();
 
 }
@@ -0,0 +1,10 @@
+package org.framework.rodolfo.freire.git.asuna.socket;
+
+import java.util.List;
+
+public interface SocketBatchObserver extends SocketObserver {
+
+    // The list is reused for the next read, copy it to keep the packets.
+    void packetsReceived(NIOSocket socket, List<byte[]> packets);
+
+}
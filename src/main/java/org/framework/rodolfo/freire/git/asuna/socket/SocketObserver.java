@@ -12,4 +12,7 @@ public interface SocketObserver {
 
     void packetSent(NIOSocket socket, Object tag);
 
+    default void writabilityChanged(NIOSocket socket, boolean writable) {
+    }
+
 }
@@ -14,4 +14,7 @@ public class SocketObserverAdapter implements SocketObserver {
 
     public void packetSent(NIOSocket socket, Object tag) {
     }
+
+    public void writabilityChanged(NIOSocket socket, boolean writable) {
+    }
 }
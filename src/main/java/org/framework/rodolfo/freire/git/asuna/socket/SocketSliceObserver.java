@@ -0,0 +1,11 @@
+package org.framework.rodolfo.freire.git.asuna.socket;
+
+import java.nio.ByteBuffer;
+
+public interface SocketSliceObserver extends SocketObserver {
+
+    // The slice is a read-only view of the receive buffer and is only valid during the call,
+    // use NIOUtils.retain to keep it.
+    void sliceReceived(NIOSocket socket, ByteBuffer slice);
+
+}
@@ -126,7 +126,7 @@ public abstract class ChannelResponder implements NIOAbstractSocket {
                 } else {
                     selectionKey.interestOps(mInterestOps);
                 }
-                if (selectionKey.interestOps() != oldOps) {
+                if (selectionKey.interestOps() != oldOps && !nioService.inEventLoop()) {
                     nioService.wakeup();
                 }
             } catch (CancelledKeyException e) {
@@ -150,6 +150,10 @@ public abstract class ChannelResponder implements NIOAbstractSocket {
         return mIp + ":" + mPort;
     }
 
+    public void drain() {
+        close();
+    }
+
     public abstract void shutdown(Exception e);
 
     private static class CloseEvent implements Runnable {
@@ -1,44 +1,124 @@
 package org.framework.rodolfo.freire.git.asuna.socket.channel;
 
 import org.framework.rodolfo.freire.git.asuna.packet.read.PacketReader;
+import org.framework.rodolfo.freire.git.asuna.packet.read.PacketScan;
 import org.framework.rodolfo.freire.git.asuna.packet.read.RawPacketReader;
+import org.framework.rodolfo.freire.git.asuna.packet.read.SlicePacketReader;
 import org.framework.rodolfo.freire.git.asuna.packet.write.PacketWriter;
+import org.framework.rodolfo.freire.git.asuna.socket.BufferReleaser;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOSocket;
+import org.framework.rodolfo.freire.git.asuna.socket.SocketBatchObserver;
 import org.framework.rodolfo.freire.git.asuna.socket.SocketObserver;
+import org.framework.rodolfo.freire.git.asuna.socket.SocketSliceObserver;
 import org.framework.rodolfo.freire.git.asuna.socket.reader.SocketReader;
+import org.framework.rodolfo.freire.git.asuna.socket.write.FileTransfer;
 import org.framework.rodolfo.freire.git.asuna.socket.write.SocketWriter;
+import org.framework.rodolfo.freire.git.asuna.socket.write.WriteEntry;
+import org.framework.rodolfo.freire.git.asuna.socket.write.WriteEntryPool;
+import org.framework.rodolfo.freire.git.asuna.socket.write.WriteLane;
+import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SocketChannelResponder extends ChannelResponder implements NIOSocket {
 
+    private final static int LANE_QUANTUM = 16 * 1024;
+    private final static int MAX_FILE_CHUNK = 1024 * 1024;
+    private final static byte[] EMPTY_PACKET = new byte[0];
+    private final static int LANE_STOPPED = 0;
+    private final static int LANE_EMPTY = 1;
+    private final static int LANE_WAITING = 2;
+
     private final AtomicLong bytesInQueue;
     private final SocketReader socketReader;
     private final SocketWriter socketWriter;
     private int maxQueueSize;
     private long timeOpened;
-    private final ConcurrentLinkedQueue<Object> packetQueue;
+    private final WriteLane[] lanes;
+    private final WriteEntryPool entryPool;
+    private int weightedLane;
+    private final AtomicBoolean writeInterestQueued;
+    private final Runnable writeInterestEvent;
     private PacketReader packetReader;
+    private final PacketScan packetScan;
     private volatile SocketObserver socketObserver;
+    private ArrayList<byte[]> receivedBatch;
+    private volatile NIOSocket owner;
+    private volatile Runnable lastEvent;
+    private volatile boolean writeClosed;
+    private Runnable barrierEvent;
+    private boolean draining;
+    private boolean listening;
+    private boolean writing;
+    private volatile boolean readingSuspended;
+    private final AtomicLong inboundBytes;
+    private final AtomicBoolean inboundSuspended;
+    private final Runnable readInterestEvent;
+    private final AtomicLong unflushedBytes;
+    private final AtomicBoolean flushScheduled;
+    private final Runnable flushEvent;
+    private volatile int flushWindowBytes;
+    private volatile long flushWindowNanos;
+    private volatile long inboundLowWatermark;
+    private volatile long inboundHighWatermark;
+    private volatile long writeLowWatermark;
+    private volatile long writeHighWatermark;
+    private final AtomicBoolean unwritable;
+    private boolean notifiedWritable;
+    private final Runnable writabilityEvent;
 
     public SocketChannelResponder(NIOService service, SocketChannel socketChannel, InetSocketAddress address) {
         super(service, socketChannel, address);
         socketObserver = null;
+        owner = this;
+        lastEvent = null;
+        draining = false;
+        listening = false;
+        writing = false;
+        readingSuspended = false;
+        inboundBytes = new AtomicLong(0L);
+        inboundSuspended = new AtomicBoolean(false);
+        readInterestEvent = this::updateReadInterest;
+        unflushedBytes = new AtomicLong(0L);
+        flushScheduled = new AtomicBoolean(false);
+        flushEvent = () -> {
+            flushScheduled.set(false);
+            flush();
+        };
+        flushWindowBytes = -1;
+        flushWindowNanos = -1;
+        inboundLowWatermark = -1;
+        inboundHighWatermark = -1;
+        writeLowWatermark = -1;
+        writeHighWatermark = -1;
+        unwritable = new AtomicBoolean(false);
+        notifiedWritable = true;
+        writabilityEvent = this::updateWritability;
         maxQueueSize = -1;
         timeOpened = -1;
         packetReader = RawPacketReader.INSTANCE;
+        packetScan = new PacketScan();
         bytesInQueue = new AtomicLong(0L);
-        packetQueue = new ConcurrentLinkedQueue<Object>();
+        lanes = new WriteLane[]{new WriteLane(1), new WriteLane(4), new WriteLane(1)};
+        weightedLane = PRIORITY_NORMAL;
+        entryPool = service.getWriteEntryPool();
+        writeInterestQueued = new AtomicBoolean(false);
+        writeInterestEvent = new AddWriteInterestEvent();
         socketReader = new SocketReader(service);
-        socketWriter = new SocketWriter();
+        socketWriter = new SocketWriter(this::notifyPacketSent);
     }
 
     public void keyInitialized() {
@@ -48,32 +128,337 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
     }
 
     public void closeAfterWrite() {
-        queue(() -> {
-            packetQueue.clear();
-            close(null);
-        });
+        closeAfterWrite(null);
+    }
+
+    // The event runs once every lane got to its marker, an empty packet after it lets the packet writer send a trailer.
+    public void closeAfterWrite(Runnable lastEvent) {
+        this.lastEvent = lastEvent;
+        writeClosed = true;
+        // Each lane sends what was queued ahead of its marker, the socket closes once all got there.
+        for (WriteLane lane : lanes) {
+            lane.offer(entryPool.acquire().initClose());
+        }
+        queueWriteInterest();
     }
 
     public void queue(Runnable runnable) {
-        packetQueue.offer(runnable);
-        getNIOService().queue(new AddInterestEvent(SelectionKey.OP_WRITE));
+        lanes[PRIORITY_NORMAL].offer(entryPool.acquire().initEvent(runnable));
+        queueWriteInterest();
+    }
+
+    // The event runs once every lane got to it, what was written ahead of it on any lane goes out first.
+    public void queueBarrier(Runnable event) {
+        synchronized (lanes) {
+            for (WriteLane lane : lanes) {
+                lane.offer(entryPool.acquire().initBarrier(event));
+            }
+        }
+        queueWriteInterest();
+    }
+
+    private void queueWriteInterest() {
+        if (writeInterestQueued.compareAndSet(false, true)) {
+            getNIOService().queue(writeInterestEvent);
+        }
     }
 
     public boolean write(byte[] packet, Object tag) {
-        long currentQueueSize = bytesInQueue.addAndGet(packet.length);
+        return write(packet, tag, PRIORITY_NORMAL);
+    }
+
+    public boolean write(byte[] packet, Object tag, int priority) {
+        WriteLane lane = lane(priority);
+        if (!enqueue(lane, entryPool.acquire().initPacket(packet, tag))) return false;
+        flush();
+        return true;
+    }
+
+    public boolean write(byte[] packet) {
+        return write(packet, null);
+    }
+
+    public boolean write(ByteBuffer packet) {
+        return write(new ByteBuffer[]{packet}, null, null);
+    }
+
+    public boolean write(ByteBuffer packet, Object tag) {
+        return write(new ByteBuffer[]{packet}, tag, null);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag) {
+        return write(packet, tag, null);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser) {
+        return write(packet, tag, releaser, PRIORITY_NORMAL);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser, int priority) {
+        // The buffers belong to the socket until the releaser gets them back.
+        WriteLane lane = lane(priority);
+        if (!enqueue(lane, entryPool.acquire().initBuffers(packet, tag, releaser, NIOUtils.remaining(packet)))) return false;
+        flush();
+        return true;
+    }
+
+    public boolean writeNoFlush(byte[] packet) {
+        return writeNoFlush(packet, null);
+    }
+
+    public boolean writeNoFlush(byte[] packet, Object tag) {
+        if (!enqueue(lanes[PRIORITY_NORMAL], entryPool.acquire().initPacket(packet, tag))) return false;
+        deferFlush(packet.length);
+        return true;
+    }
+
+    public boolean writeNoFlush(ByteBuffer[] packet, Object tag, BufferReleaser releaser) {
+        long length = NIOUtils.remaining(packet);
+        if (!enqueue(lanes[PRIORITY_NORMAL], entryPool.acquire().initBuffers(packet, tag, releaser, length))) return false;
+        deferFlush(length);
+        return true;
+    }
+
+    private boolean enqueue(WriteLane lane, WriteEntry entry) {
+        // Nothing queued behind the close markers would be sent.
+        if (writeClosed || !isOpen()) {
+            entryPool.release(entry);
+            return false;
+        }
+        long length = entry.getLength();
+        long currentQueueSize = bytesInQueue.addAndGet(length);
         if (maxQueueSize > 0 && currentQueueSize > maxQueueSize) {
-            bytesInQueue.addAndGet(-packet.length);
+            bytesInQueue.addAndGet(-length);
+            entryPool.release(entry);
             return false;
         }
+        lane.offer(entry);
+        long highWatermark = writeHighWatermark;
+        if (highWatermark != -1 && currentQueueSize >= highWatermark && unwritable.compareAndSet(false, true)) {
+            getNIOService().queue(writabilityEvent);
+        }
+        return true;
+    }
+
+    public void flush() {
+        // Only take back what this flush covers, deferred writes racing with it keep their count.
+        long unflushed = unflushedBytes.get();
+        if (unflushed != 0) unflushedBytes.addAndGet(-unflushed);
+        if (!writing && socketWriter.isEmpty() && getNIOService().inEventLoop() && isConnected()) {
+            // Nothing is in flight, write now and only wait for OP_WRITE if the channel is full.
+            socketReadyForWrite();
+            return;
+        }
+        queueWriteInterest();
+    }
+
+    private void deferFlush(long length) {
+        // Unflushed packets still go out with any flush or write that reaches the loop first.
+        long unflushed = unflushedBytes.addAndGet(length);
+        int maxBytes = flushWindowBytes;
+        if (maxBytes != -1 && unflushed >= maxBytes) {
+            flush();
+            return;
+        }
+        long delay = flushWindowNanos;
+        if (delay != -1 && flushScheduled.compareAndSet(false, true)) {
+            getNIOService().executeLater(flushEvent, delay);
+        }
+    }
+
+    public void setFlushWindow(int maxBytes, long maxDelayMicros) {
+        if (maxBytes < 1 && maxBytes != -1) {
+            throw new IllegalArgumentException("Flush window must be at least 1 byte, was: " + maxBytes);
+        }
+        if (maxDelayMicros < 1 && maxDelayMicros != -1) {
+            throw new IllegalArgumentException("Flush delay must be at least 1us, was: " + maxDelayMicros);
+        }
+        flushWindowBytes = maxBytes;
+        flushWindowNanos = maxDelayMicros == -1 ? -1 : maxDelayMicros * 1000;
+    }
 
-        packetQueue.offer(tag == null ? packet : new Object[]{packet, tag});
-        getNIOService().queue(new AddInterestEvent(SelectionKey.OP_WRITE));
+    public boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag) throws IOException {
+        return sendFile(fileChannel, offset, length, tag, PRIORITY_NORMAL);
+    }
 
+    public boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag, int priority) throws IOException {
+        return sendFile(lane(priority), new FileTransfer(fileChannel, offset, length, tag, false));
+    }
+
+    public boolean sendFile(Path path, long offset, long length, Object tag) throws IOException {
+        return sendFile(path, offset, length, tag, PRIORITY_NORMAL);
+    }
+
+    public boolean sendFile(Path path, long offset, long length, Object tag, int priority) throws IOException {
+        WriteLane lane = lane(priority);
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        FileTransfer fileTransfer;
+        try {
+            fileTransfer = new FileTransfer(fileChannel, offset, length, tag, true);
+        } catch (IOException | RuntimeException e) {
+            NIOUtils.closeChannelSilently(fileChannel);
+            throw e;
+        }
+        return sendFile(lane, fileTransfer);
+    }
+
+    private boolean sendFile(WriteLane lane, FileTransfer fileTransfer) {
+        // Files count against the queue limit and the watermarks like any other write.
+        if (!enqueue(lane, entryPool.acquire().initFile(fileTransfer))) {
+            fileTransfer.close();
+            return false;
+        }
+        flush();
         return true;
     }
 
-    public boolean write(byte[] packet) {
-        return write(packet, null);
+    public void setLaneWeights(int normalWeight, int bulkWeight) {
+        lanes[PRIORITY_NORMAL].setWeight(normalWeight);
+        lanes[PRIORITY_BULK].setWeight(bulkWeight);
+    }
+
+    private WriteLane lane(int priority) {
+        if (priority < PRIORITY_CONTROL || priority > PRIORITY_BULK) {
+            throw new IllegalArgumentException("Priority must be between " + PRIORITY_CONTROL + " and " + PRIORITY_BULK + ", was: " + priority);
+        }
+        return lanes[priority];
+    }
+
+    private boolean lanesEmpty() {
+        for (WriteLane lane : lanes) {
+            if (!lane.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private boolean lanesClosed() {
+        for (WriteLane lane : lanes) {
+            if (!lane.isClosed()) return false;
+        }
+        return true;
+    }
+
+    private boolean otherLanesWaiting(WriteLane current) {
+        for (int i = PRIORITY_NORMAL; i < lanes.length; i++) {
+            if (lanes[i] != current && !lanes[i].isEmpty() && !lanes[i].isClosed() && !lanes[i].isHeld()) return true;
+        }
+        return false;
+    }
+
+    private void clearQueue() {
+        for (WriteLane lane : lanes) {
+            WriteEntry entry;
+            while ((entry = lane.poll()) != null) {
+                entry.discard();
+                entryPool.release(entry);
+            }
+        }
+    }
+
+    public void setOwner(NIOSocket owner) {
+        this.owner = owner == null ? this : owner;
+    }
+
+    public void suspendReading() {
+        readingSuspended = true;
+        getNIOService().queue(readInterestEvent);
+    }
+
+    public void resumeReading() {
+        readingSuspended = false;
+        getNIOService().queue(readInterestEvent);
+    }
+
+    public boolean isReadingSuspended() {
+        return readingSuspended || inboundSuspended.get() || getNIOService().isReadingSuspended();
+    }
+
+    public long getInboundBytes() {
+        return inboundBytes.get();
+    }
+
+    public void setInboundWatermarks(long lowWatermark, long highWatermark) {
+        NIOUtils.checkWatermarks(lowWatermark, highWatermark);
+        inboundLowWatermark = lowWatermark;
+        inboundHighWatermark = highWatermark;
+        if (highWatermark == -1 || inboundBytes.get() <= lowWatermark) {
+            if (inboundSuspended.compareAndSet(true, false)) getNIOService().queue(readInterestEvent);
+        }
+    }
+
+    public void inboundConsumed(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Consumed bytes must be at least 0, was: " + bytes);
+        long pending;
+        long remaining;
+        do {
+            pending = inboundBytes.get();
+            remaining = Math.max(pending - bytes, 0);
+        } while (!inboundBytes.compareAndSet(pending, remaining));
+        if (remaining <= inboundLowWatermark && inboundSuspended.compareAndSet(true, false)) {
+            getNIOService().queue(readInterestEvent);
+        }
+        if (pending != remaining) getNIOService().inboundConsumed(pending - remaining);
+    }
+
+    private void inboundReceived(long bytes) {
+        long highWatermark = inboundHighWatermark;
+        // Without a watermark on the socket or its service nothing reads the counts, so skip keeping them.
+        if (highWatermark == -1 && getNIOService().getInboundHighWatermark() == -1) return;
+        long pending = inboundBytes.addAndGet(bytes);
+        getNIOService().inboundReceived(bytes);
+        if (highWatermark != -1 && pending >= highWatermark && inboundSuspended.compareAndSet(false, true)) {
+            // Recheck, the application may have caught up before the flag was set.
+            if (inboundBytes.get() <= inboundLowWatermark) inboundSuspended.set(false);
+        }
+    }
+
+    public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+        NIOUtils.checkWatermarks(lowWatermark, highWatermark);
+        writeLowWatermark = lowWatermark;
+        writeHighWatermark = highWatermark;
+        if (highWatermark != -1 && bytesInQueue.get() >= highWatermark) unwritable.set(true);
+        getNIOService().queue(writabilityEvent);
+    }
+
+    public boolean isWritable() {
+        return !unwritable.get();
+    }
+
+    private void updateWritability() {
+        // Producers only see the queue, the loop also counts what the writer still holds before lifting it.
+        if (unwritable.get() && (writeHighWatermark == -1 || getPendingWriteBytes() <= writeLowWatermark)) {
+            unwritable.set(false);
+            // Recheck, a producer may have pushed the queue back over the mark meanwhile.
+            long highWatermark = writeHighWatermark;
+            if (highWatermark != -1 && bytesInQueue.get() >= highWatermark) unwritable.set(true);
+        }
+        boolean writable = !unwritable.get();
+        if (writable == notifiedWritable) return;
+        notifiedWritable = writable;
+        notifyWritabilityChanged(writable);
+    }
+
+    public void updateReadInterest() {
+        if (listening && !draining && !isReadingSuspended()) {
+            addInterest(SelectionKey.OP_READ);
+        } else {
+            deleteInterest(SelectionKey.OP_READ);
+        }
+    }
+
+    public void drain() {
+        if (!isOpen()) return;
+        draining = true;
+        updateReadInterest();
+        if (!isConnected()) {
+            close();
+            return;
+        }
+        owner.closeAfterWrite();
+    }
+
+    public long getPendingWriteBytes() {
+        return bytesInQueue.get() + socketWriter.remaining();
     }
 
     public boolean isConnected() {
@@ -88,6 +473,22 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
         }
     }
 
+    private void notifyPacketsReceived(SocketBatchObserver observer, List<byte[]> packets) {
+        try {
+            observer.packetsReceived(this, packets);
+        } catch (Exception e) {
+            getNIOService().notifyException(e);
+        }
+    }
+
+    private void notifySliceReceived(SocketSliceObserver observer, ByteBuffer slice) {
+        try {
+            observer.sliceReceived(this, slice);
+        } catch (Exception e) {
+            getNIOService().notifyException(e);
+        }
+    }
+
     private void notifyPacketSent(Object tag) {
         try {
             if (socketObserver != null) socketObserver.packetSent(this, tag);
@@ -96,68 +497,218 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
         }
     }
 
+    private void notifyWritabilityChanged(boolean writable) {
+        try {
+            if (socketObserver != null) socketObserver.writabilityChanged(this, writable);
+        } catch (Exception e) {
+            getNIOService().notifyException(e);
+        }
+    }
+
     public void socketReadyForRead() {
         if (!isOpen()) return;
         try {
             if (!isConnected()) throw new IOException("Channel not connected.");
-            while (socketReader.read(getChannel()) > 0) {
-                byte[] packet;
+            // Yield after the budget, the selector reports the socket again while data is left.
+            int readsLeft = getNIOService().getMaxReadsPerSocket();
+            int bytesLeft = getNIOService().getMaxReadBytesPerSocket();
+            int read;
+            while (!isReadingSuspended() && (read = socketReader.read(getChannel())) > 0) {
                 ByteBuffer buffer = socketReader.getBuffer();
-                while (buffer.remaining() > 0
-                        && (packet = packetReader.nextPacket(buffer)) != null) {
-                    if (packet == PacketReader.SKIP_PACKET) continue;
-                    notifyPacketReceived(packet);
+                PacketReader reader = packetReader;
+                SocketObserver observer = socketObserver;
+                long received = 0;
+                if (reader instanceof SlicePacketReader && observer instanceof SocketSliceObserver) {
+                    SlicePacketReader sliceReader = (SlicePacketReader) reader;
+                    ByteBuffer slice;
+                    while (isOpen() && buffer.remaining() > 0
+                            && (slice = packetScan.nextSlice(sliceReader, buffer)) != null) {
+                        received += slice.remaining();
+                        notifySliceReceived((SocketSliceObserver) observer, slice);
+                    }
+                } else if (observer instanceof SocketBatchObserver) {
+                    if (receivedBatch == null) receivedBatch = new ArrayList<>();
+                    byte[] packet;
+                    while (isOpen() && buffer.remaining() > 0
+                            && (packet = packetScan.nextPacket(reader, buffer)) != null) {
+                        if (packet == PacketReader.SKIP_PACKET) continue;
+                        received += packet.length;
+                        receivedBatch.add(packet);
+                    }
+                    if (!receivedBatch.isEmpty()) {
+                        if (isOpen()) notifyPacketsReceived((SocketBatchObserver) observer, receivedBatch);
+                        receivedBatch.clear();
+                    }
+                } else {
+                    byte[] packet;
+                    while (isOpen() && buffer.remaining() > 0
+                            && (packet = packetScan.nextPacket(reader, buffer)) != null) {
+                        if (packet == PacketReader.SKIP_PACKET) continue;
+                        received += packet.length;
+                        notifyPacketReceived(packet);
+                    }
                 }
+                // A callback closed the socket, shutdown already gave the read buffer back.
+                if (!isOpen()) return;
                 socketReader.compact();
+                if (received > 0) inboundReceived(received);
+                if (readsLeft != -1 && --readsLeft == 0) break;
+                if (bytesLeft != -1 && (bytesLeft -= read) <= 0) break;
             }
+            // Reading stays off until the suspension is lifted.
+            if (isReadingSuspended()) deleteInterest(SelectionKey.OP_READ);
         } catch (Exception e) {
             close(e);
         }
     }
 
     private void fillCurrentOutgoingBuffer() throws IOException {
-        if (socketWriter.isEmpty()) {
-            // Retrieve next packet from the queue.
-            Object nextPacket = packetQueue.poll();
-            while (nextPacket != null && nextPacket instanceof Runnable) {
-                ((Runnable) nextPacket).run();
-                nextPacket = packetQueue.poll();
+        if (!socketWriter.isEmpty()) return;
+        do {
+            if (closeIfLanesClosed()) return;
+            // Control traffic always goes first, the other lanes share what is left by weight.
+            if (fillFromLane(lanes[PRIORITY_CONTROL], false) == LANE_STOPPED) return;
+            int idleLanes = 0;
+            while (idleLanes < lanes.length - 1) {
+                WriteLane lane = lanes[weightedLane];
+                int result = fillFromLane(lane, otherLanesWaiting(lane));
+                if (result == LANE_STOPPED) return;
+                idleLanes = result == LANE_EMPTY ? idleLanes + 1 : 0;
+                // Deficit round robin, every turn a lane earns its weight in bytes of whole frames.
+                weightedLane = weightedLane == lanes.length - 1 ? PRIORITY_NORMAL : weightedLane + 1;
+                WriteLane next = lanes[weightedLane];
+                next.setDeficit(next.getDeficit() + (long) next.getWeight() * LANE_QUANTUM);
+            }
+        } while (socketWriter.isEmpty() && releaseBarrier());
+        if (socketWriter.isEmpty()) closeIfLanesClosed();
+    }
+
+    private boolean releaseBarrier() {
+        Runnable event = barrierEvent;
+        if (event == null) return false;
+        // A closed lane sends nothing more, it does not have to get to the barrier.
+        for (WriteLane lane : lanes) {
+            if (!lane.isHeld() && !lane.isClosed()) return false;
+        }
+        barrierEvent = null;
+        for (WriteLane lane : lanes) {
+            lane.resume();
+        }
+        event.run();
+        return true;
+    }
+
+    private int fillFromLane(WriteLane lane, boolean contended) throws IOException {
+        WriteEntry entry = lane.peek();
+        while (entry != null && !lane.isClosed() && !lane.isHeld()) {
+            int type = entry.getType();
+            if (type == WriteEntry.FILE) return fillFile(lane, entry, contended);
+            long length = 0;
+            if (type == WriteEntry.EVENT) {
+                // Queued events run between packets, never in the middle of a gathered batch.
+                if (!socketWriter.isEmpty()) return LANE_STOPPED;
+            } else if (type != WriteEntry.CLOSE && type != WriteEntry.BARRIER) {
+                length = entry.getLength();
+                if (contended && length > lane.getDeficit()) return LANE_WAITING;
+                if (!socketWriter.canAccept(length)) return LANE_STOPPED;
             }
-            if (nextPacket == null) return;
-            byte[] data;
-            Object tag = null;
-            if (nextPacket instanceof byte[]) {
-                data = (byte[]) nextPacket;
-            } else {
-                data = (byte[]) ((Object[]) nextPacket)[0];
-                tag = ((Object[]) nextPacket)[1];
+            if (!take(lane)) return LANE_EMPTY;
+            lane.setDeficit(contended ? lane.getDeficit() - length : 0);
+            switch (type) {
+                case WriteEntry.PACKET:
+                    bytesInQueue.addAndGet(-length);
+                    socketWriter.addPacket(entry.getPacket(), entry.getTag());
+                    entryPool.release(entry);
+                    break;
+                case WriteEntry.BUFFERS:
+                    bytesInQueue.addAndGet(-length);
+                    socketWriter.addPacket(entry.getBuffers(), entry.getTag(), entry.getReleaser());
+                    entryPool.release(entry);
+                    break;
+                case WriteEntry.EVENT:
+                    Runnable event = entry.getEvent();
+                    entryPool.release(entry);
+                    event.run();
+                    break;
+                case WriteEntry.BARRIER:
+                    barrierEvent = entry.getEvent();
+                    entryPool.release(entry);
+                    lane.hold();
+                    break;
+                case WriteEntry.CLOSE:
+                    entryPool.release(entry);
+                    lane.close();
+                    break;
             }
-            socketWriter.setPacket(data, tag);
-            bytesInQueue.addAndGet(-data.length);
+            entry = lane.peek();
         }
+        lane.setDeficit(0);
+        return LANE_EMPTY;
+    }
+
+    private int fillFile(WriteLane lane, WriteEntry entry, boolean contended) throws IOException {
+        // A file goes out on its own, after the packets gathered ahead of it.
+        if (!socketWriter.isEmpty()) return LANE_STOPPED;
+        FileTransfer fileTransfer = entry.getFile();
+        long remaining = fileTransfer.remaining();
+        // Files go out in bounded pieces, against other busy lanes each piece is the deficit and charged like packets.
+        long chunk = Math.min(remaining, contended ? lane.getDeficit() : MAX_FILE_CHUNK);
+        if (chunk < remaining) {
+            if (chunk < LANE_QUANTUM) return LANE_WAITING;
+            lane.setDeficit(contended ? lane.getDeficit() - chunk : 0);
+            bytesInQueue.addAndGet(-chunk);
+            socketWriter.setFile(fileTransfer, chunk);
+            return LANE_STOPPED;
+        }
+        if (!take(lane)) return LANE_EMPTY;
+        lane.setDeficit(contended ? lane.getDeficit() - chunk : 0);
+        bytesInQueue.addAndGet(-chunk);
+        entryPool.release(entry);
+        socketWriter.setFile(fileTransfer);
+        return LANE_STOPPED;
+    }
+
+    private boolean take(WriteLane lane) {
+        if (lane.poll() != null) return true;
+        // A producer is still linking the entry behind the head and may not wake the loop, come back next select.
+        addInterest(SelectionKey.OP_WRITE);
+        return false;
+    }
+
+    private boolean closeIfLanesClosed() {
+        if (!lanesClosed()) return false;
+        Runnable event = lastEvent;
+        if (event != null) {
+            lastEvent = null;
+            event.run();
+            socketWriter.addPacket(EMPTY_PACKET, null);
+            return true;
+        }
+        clearQueue();
+        close(null);
+        return true;
     }
 
     public void socketReadyForWrite() {
+        writing = true;
         try {
             deleteInterest(SelectionKey.OP_WRITE);
             if (!isOpen()) return;
             fillCurrentOutgoingBuffer();
-            if (socketWriter.isEmpty()) {
-                return;
-            }
             while (!socketWriter.isEmpty()) {
                 boolean bytesWereWritten = socketWriter.write(getChannel());
                 if (!bytesWereWritten) {
                     addInterest(SelectionKey.OP_WRITE);
+                    if (unwritable.get()) updateWritability();
                     return;
                 }
-                if (socketWriter.isEmpty()) {
-                    notifyPacketSent(socketWriter.getTag());
-                    fillCurrentOutgoingBuffer();
-                }
+                fillCurrentOutgoingBuffer();
             }
+            if (unwritable.get()) updateWritability();
         } catch (Exception e) {
             close(e);
+        } finally {
+            writing = false;
         }
     }
 
@@ -242,7 +793,12 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
 
     public void setPacketWriter(final PacketWriter packetWriter) {
         if (packetWriter == null) throw new NullPointerException();
-        queue(() -> socketWriter.setPacketWriter(packetWriter));
+        if (getNIOService().inEventLoop() && barrierEvent == null && lanesEmpty() && socketWriter.isEmpty()) {
+            socketWriter.setPacketWriter(packetWriter);
+            return;
+        }
+        // Every lane switches at the same point, whatever was written before this keeps the old writer.
+        queueBarrier(() -> socketWriter.setPacketWriter(packetWriter));
     }
 
     public SocketChannel getChannel() {
@@ -250,9 +806,16 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
     }
 
     public void shutdown(Exception e) {
+        long unsent = getPendingWriteBytes();
         timeOpened = -1;
-        packetQueue.clear();
+        long unconsumed = inboundBytes.getAndSet(0);
+        if (unconsumed > 0) getNIOService().inboundConsumed(unconsumed);
+        socketReader.release();
+        packetReader.release();
+        socketWriter.discard();
+        clearQueue();
         bytesInQueue.set(0);
+        getNIOService().socketClosed(unsent);
         notifyObserverOfDisconnect(e);
     }
 
@@ -260,15 +823,10 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
         return getChannel().socket();
     }
 
-    private class AddInterestEvent implements Runnable {
-        private final int m_interest;
-
-        private AddInterestEvent(int interest) {
-            m_interest = interest;
-        }
-
+    private class AddWriteInterestEvent implements Runnable {
         public void run() {
-            addInterest(m_interest);
+            writeInterestQueued.set(false);
+            addInterest(SelectionKey.OP_WRITE);
         }
     }
 
@@ -289,7 +847,8 @@ public class SocketChannelResponder extends ChannelResponder implements NIOSocke
             if (!socketChannelResponder.isOpen()) {
                 socketChannelResponder.notifyObserverOfDisconnect(null);
             }
-            socketChannelResponder.addInterest(SelectionKey.OP_READ);
+            socketChannelResponder.listening = true;
+            socketChannelResponder.updateReadInterest();
         }
 
         @Override
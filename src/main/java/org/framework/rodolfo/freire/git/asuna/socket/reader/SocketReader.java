@@ -1,65 +1,132 @@
 package org.framework.rodolfo.freire.git.asuna.socket.reader;
 
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
-import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 public class SocketReader {
 
+    public final static int MIN_READ_SIZE = 256;
+    public final static int INITIAL_READ_SIZE = 2048;
+
     private final NIOService nioService;
-    private ByteBuffer previousBytes;
+    private ByteBuffer pendingBuffer;
+    private int predictedReadSize;
+    private boolean shrinkPending;
     private long newBytesRead;
 
     public SocketReader(NIOService nioService) {
         this.nioService = nioService;
+        pendingBuffer = null;
+        predictedReadSize = INITIAL_READ_SIZE;
+        shrinkPending = false;
         newBytesRead = 0;
     }
 
     public int read(SocketChannel channel) throws IOException {
 
-        ByteBuffer buffer = getBuffer();
-        buffer.clear();
+        ByteBuffer buffer;
 
-        if (previousBytes != null) {
-            buffer.position(previousBytes.remaining());
+        if (pendingBuffer == null) {
+            buffer = nioService.getSharedBuffer();
+            buffer.clear();
+        } else {
+            buffer = ensureReadSpace();
         }
 
+        int offered = buffer.remaining();
+
         int read = channel.read(buffer);
 
         if (read < 0) throw new EOFException("Buffer read -1");
 
-        if (!buffer.hasRemaining()) throw new BufferOverflowException();
-
         newBytesRead += read;
 
         if (read == 0) return 0;
 
-        if (previousBytes != null) {
-            int position = buffer.position();
-            buffer.position(0);
-            buffer.put(previousBytes);
-            buffer.position(position);
-            previousBytes = null;
-        }
+        recordRead(read, offered);
 
         buffer.flip();
 
         return read;
     }
 
+    private ByteBuffer ensureReadSpace() throws ProtocolViolationException {
+        if (pendingBuffer.remaining() >= predictedReadSize) return pendingBuffer;
+        int maxSize = nioService.getMaxReceiveBufferSize();
+        long wanted = Math.max((long) pendingBuffer.position() + predictedReadSize, (long) pendingBuffer.capacity() << 1);
+        if (maxSize != -1) wanted = Math.min(wanted, maxSize);
+        if (wanted <= pendingBuffer.capacity()) {
+            if (pendingBuffer.hasRemaining()) return pendingBuffer;
+            throw new ProtocolViolationException("Packet exceeds max receive buffer size of " + maxSize + " bytes");
+        }
+        pendingBuffer.flip();
+        moveTo(acquire((int) Math.min(wanted, Integer.MAX_VALUE - 8)));
+        return pendingBuffer;
+    }
+
+    private void recordRead(int read, int offered) {
+        if (read >= offered) {
+            // The buffer was filled, there is likely more waiting.
+            predictedReadSize = Math.min(predictedReadSize << 1, nioService.getSharedBuffer().capacity());
+            shrinkPending = false;
+        } else if (read < predictedReadSize >> 1) {
+            if (shrinkPending) predictedReadSize = Math.max(predictedReadSize >> 1, MIN_READ_SIZE);
+            shrinkPending = !shrinkPending;
+        } else {
+            shrinkPending = false;
+        }
+    }
+
     public void compact() {
 
         ByteBuffer buffer = getBuffer();
 
-        if (buffer.remaining() > 0) {
-            previousBytes = NIOUtils.copy(buffer);
+        if (!buffer.hasRemaining()) {
+            release();
+            return;
         }
 
+        int wanted = buffer.remaining() + predictedReadSize;
+
+        if (pendingBuffer == null) {
+            // Move the partial packet out of the shared buffer, later reads append to it directly.
+            pendingBuffer = acquire(wanted);
+            pendingBuffer.put(buffer);
+        } else if (pendingBuffer.capacity() > wanted << 1) {
+            // Give back the room a large packet needed.
+            moveTo(acquire(wanted));
+        } else {
+            pendingBuffer.compact();
+        }
+
+    }
+
+    private ByteBuffer acquire(int size) {
+        ByteBuffer buffer = nioService.acquireReadBuffer(size);
+        buffer.limit(buffer.capacity());
+        return buffer;
+    }
+
+    private void moveTo(ByteBuffer buffer) {
+        buffer.put(pendingBuffer);
+        nioService.releaseReadBuffer(pendingBuffer);
+        pendingBuffer = buffer;
+    }
+
+    public void release() {
+        if (pendingBuffer != null) {
+            nioService.releaseReadBuffer(pendingBuffer);
+            pendingBuffer = null;
+        }
+    }
+
+    public int getPredictedReadSize() {
+        return predictedReadSize;
     }
 
     public long getBytesRead() {
@@ -67,6 +134,6 @@ public class SocketReader {
     }
 
     public ByteBuffer getBuffer() {
-        return nioService.getSharedBuffer();
+        return pendingBuffer != null ? pendingBuffer : nioService.getSharedBuffer();
     }
 }
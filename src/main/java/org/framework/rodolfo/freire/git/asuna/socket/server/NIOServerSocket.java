@@ -1,5 +1,6 @@
 package org.framework.rodolfo.freire.git.asuna.socket.server;
 
+import org.framework.rodolfo.freire.git.asuna.event.NIOServicePool;
 import org.framework.rodolfo.freire.git.asuna.socket.ConnectionAcceptor;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOAbstractSocket;
 
@@ -19,6 +20,8 @@ public interface NIOServerSocket extends NIOAbstractSocket {
 
     void setConnectionAcceptor(ConnectionAcceptor acceptor);
 
+    void setServicePool(NIOServicePool servicePool);
+
     ServerSocket socket();
 
 }
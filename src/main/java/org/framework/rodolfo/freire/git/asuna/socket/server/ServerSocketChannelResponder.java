@@ -1,5 +1,6 @@
 package org.framework.rodolfo.freire.git.asuna.socket.server;
 
+import org.framework.rodolfo.freire.git.asuna.event.NIOServicePool;
 import org.framework.rodolfo.freire.git.asuna.socket.ConnectionAcceptor;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOSocket;
@@ -20,12 +21,14 @@ public class ServerSocketChannelResponder extends ChannelResponder implements NI
     private long totalFailedConnections;
     private long totalConnections;
     private volatile ConnectionAcceptor connectionAcceptor;
+    private volatile NIOServicePool servicePool;
     private ServerSocketObserver serverSocketObserver;
 
     @SuppressWarnings({"ObjectToString"})
     public ServerSocketChannelResponder(NIOService service, ServerSocketChannel channel, InetSocketAddress address) throws IOException {
         super(service, channel, address);
         serverSocketObserver = null;
+        servicePool = null;
         setConnectionAcceptor(ConnectionAcceptor.ALLOW);
         totalRefusedConnections = 0;
         totalAcceptedConnections = 0;
@@ -42,7 +45,12 @@ public class ServerSocketChannelResponder extends ChannelResponder implements NI
     }
 
     public NIOSocket registerSocket(SocketChannel channel, InetSocketAddress address) throws IOException {
-        return getNIOService().registerSocketChannel(channel, address);
+        return nextService().registerSocketChannel(channel, address);
+    }
+
+    protected NIOService nextService() {
+        NIOServicePool pool = servicePool;
+        return pool == null ? getNIOService() : pool.next();
     }
 
     private void notifyNewConnection(NIOSocket socket) {
@@ -117,6 +125,10 @@ public class ServerSocketChannelResponder extends ChannelResponder implements NI
         this.connectionAcceptor = connectionAcceptor == null ? ConnectionAcceptor.DENY : connectionAcceptor;
     }
 
+    public void setServicePool(NIOServicePool servicePool) {
+        this.servicePool = servicePool;
+    }
+
     private void notifyObserverSocketDied(Exception exception) {
         try {
             if (serverSocketObserver != null) serverSocketObserver.serverSocketDied(exception);
@@ -25,7 +25,8 @@ public class SSLServerSocketChannelResponder extends ServerSocketChannelResponde
 
     @Override
     public NIOSocket registerSocket(SocketChannel channel, InetSocketAddress address) throws IOException {
-        NIOSocket socket = super.registerSocket(channel, address);
-        return new SSLSocketChannelResponder(getNIOService(), socket, m_sslContext.createSSLEngine(), false);
+        NIOService service = nextService();
+        NIOSocket socket = service.registerSocketChannel(channel, address);
+        return new SSLSocketChannelResponder(service, socket, m_sslContext.createSSLEngine(), false);
     }
 }
@@ -3,15 +3,23 @@ package org.framework.rodolfo.freire.git.asuna.socket.ssl;
 import org.framework.rodolfo.freire.git.asuna.packet.read.PacketReader;
 import org.framework.rodolfo.freire.git.asuna.packet.ssl.SSLPacketHandler;
 import org.framework.rodolfo.freire.git.asuna.packet.write.PacketWriter;
+import org.framework.rodolfo.freire.git.asuna.socket.BufferReleaser;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
 import org.framework.rodolfo.freire.git.asuna.socket.NIOSocket;
+import org.framework.rodolfo.freire.git.asuna.socket.SocketBatchObserver;
 import org.framework.rodolfo.freire.git.asuna.socket.SocketObserver;
+import org.framework.rodolfo.freire.git.asuna.socket.channel.SocketChannelResponder;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
 
 public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
 
@@ -23,7 +31,10 @@ public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
     public SSLSocketChannelResponder(NIOService nioService, NIOSocket wrappedSocket, SSLEngine engine, boolean client) throws SSLException {
         this.nioService = nioService;
         nioSocket = wrappedSocket;
-        sslPacketHandler = new SSLPacketHandler(engine, nioSocket, this);
+        if (nioSocket instanceof SocketChannelResponder) {
+            ((SocketChannelResponder) nioSocket).setOwner(this);
+        }
+        sslPacketHandler = new SSLPacketHandler(engine, nioSocket, this, nioService.getBufferPool());
         nioSocket.setPacketReader(sslPacketHandler);
         nioSocket.setPacketWriter(sslPacketHandler);
         engine.setUseClientMode(client);
@@ -52,6 +63,70 @@ public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
         return nioSocket.write(packet, tag);
     }
 
+    public boolean write(byte[] packet, Object tag, int priority) {
+        return nioSocket.write(packet, tag, priority);
+    }
+
+    public boolean write(ByteBuffer packet) {
+        return nioSocket.write(packet);
+    }
+
+    public boolean write(ByteBuffer packet, Object tag) {
+        return nioSocket.write(packet, tag);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag) {
+        return nioSocket.write(packet, tag);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser) {
+        return nioSocket.write(packet, tag, releaser);
+    }
+
+    public boolean write(ByteBuffer[] packet, Object tag, BufferReleaser releaser, int priority) {
+        return nioSocket.write(packet, tag, releaser, priority);
+    }
+
+    public boolean writeNoFlush(byte[] packet) {
+        return nioSocket.writeNoFlush(packet);
+    }
+
+    public boolean writeNoFlush(byte[] packet, Object tag) {
+        return nioSocket.writeNoFlush(packet, tag);
+    }
+
+    public boolean writeNoFlush(ByteBuffer[] packet, Object tag, BufferReleaser releaser) {
+        return nioSocket.writeNoFlush(packet, tag, releaser);
+    }
+
+    public void flush() {
+        nioSocket.flush();
+    }
+
+    public void setFlushWindow(int maxBytes, long maxDelayMicros) {
+        nioSocket.setFlushWindow(maxBytes, maxDelayMicros);
+    }
+
+    public boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag) throws IOException {
+        return nioSocket.sendFile(fileChannel, offset, length, tag);
+    }
+
+    public boolean sendFile(FileChannel fileChannel, long offset, long length, Object tag, int priority) throws IOException {
+        return nioSocket.sendFile(fileChannel, offset, length, tag, priority);
+    }
+
+    public boolean sendFile(Path path, long offset, long length, Object tag) throws IOException {
+        return nioSocket.sendFile(path, offset, length, tag);
+    }
+
+    public boolean sendFile(Path path, long offset, long length, Object tag, int priority) throws IOException {
+        return nioSocket.sendFile(path, offset, length, tag, priority);
+    }
+
+    public void setLaneWeights(int normalWeight, int bulkWeight) {
+        nioSocket.setLaneWeights(normalWeight, bulkWeight);
+    }
+
     public void queue(Runnable runnable) {
         nioSocket.queue(runnable);
     }
@@ -80,24 +155,67 @@ public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
         nioSocket.setMaxQueueSize(maxQueueSize);
     }
 
+    public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+        nioSocket.setWriteWatermarks(lowWatermark, highWatermark);
+    }
+
+    public boolean isWritable() {
+        return nioSocket.isWritable();
+    }
+
     public void setPacketReader(PacketReader packetReader) {
         sslPacketHandler.setReader(packetReader);
     }
 
     public void setPacketWriter(final PacketWriter packetWriter) {
+        if (nioSocket instanceof SocketChannelResponder) {
+            ((SocketChannelResponder) nioSocket).queueBarrier(() -> sslPacketHandler.setWriter(packetWriter));
+            return;
+        }
         nioSocket.queue(() -> sslPacketHandler.setWriter(packetWriter));
     }
 
     public void listen(SocketObserver socketObserver) {
         this.socketObserver = socketObserver;
-        nioSocket.listen(this);
+        // Only batch when the application observer does, a batch delays a reader swapped in by packetReceived.
+        nioSocket.listen(socketObserver instanceof SocketBatchObserver ? new BatchObserver() : this);
     }
 
     public void closeAfterWrite() {
+        if (nioSocket instanceof SocketChannelResponder) {
+            // close_notify goes out behind everything already queued, closing the engine earlier fails those writes.
+            ((SocketChannelResponder) nioSocket).closeAfterWrite(sslPacketHandler::closeEngine);
+            return;
+        }
         sslPacketHandler.closeEngine();
+        nioSocket.write(new byte[0]);
         nioSocket.closeAfterWrite();
     }
 
+    public void suspendReading() {
+        nioSocket.suspendReading();
+    }
+
+    public void resumeReading() {
+        nioSocket.resumeReading();
+    }
+
+    public boolean isReadingSuspended() {
+        return nioSocket.isReadingSuspended();
+    }
+
+    public long getInboundBytes() {
+        return nioSocket.getInboundBytes();
+    }
+
+    public void inboundConsumed(long bytes) {
+        nioSocket.inboundConsumed(bytes);
+    }
+
+    public void setInboundWatermarks(long lowWatermark, long highWatermark) {
+        nioSocket.setInboundWatermarks(lowWatermark, highWatermark);
+    }
+
     public Socket socket() {
         return nioSocket.socket();
     }
@@ -148,6 +266,7 @@ public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
     }
 
     public void connectionBroken(NIOSocket nioSocket, Exception exception) {
+        sslPacketHandler.releaseBuffers();
         try {
             if (socketObserver != null) socketObserver.connectionBroken(this, exception);
         } catch (Exception e) {
@@ -171,4 +290,49 @@ public class SSLSocketChannelResponder implements NIOSocketSSL, SocketObserver {
         }
     }
 
+    public void writabilityChanged(NIOSocket socket, boolean writable) {
+        try {
+            if (socketObserver != null) socketObserver.writabilityChanged(this, writable);
+        } catch (Exception e) {
+            nioService.notifyException(e);
+        }
+    }
+
+    private class BatchObserver implements SocketBatchObserver {
+
+        public void connectionOpened(NIOSocket nioSocket) {
+            SSLSocketChannelResponder.this.connectionOpened(nioSocket);
+        }
+
+        public void connectionBroken(NIOSocket nioSocket, Exception exception) {
+            SSLSocketChannelResponder.this.connectionBroken(nioSocket, exception);
+        }
+
+        public void packetReceived(NIOSocket socket, byte[] packet) {
+            SSLSocketChannelResponder.this.packetReceived(socket, packet);
+        }
+
+        public void packetsReceived(NIOSocket socket, List<byte[]> packets) {
+            SocketObserver observer = socketObserver;
+            if (!(observer instanceof SocketBatchObserver)) {
+                for (byte[] packet : packets) {
+                    packetReceived(socket, packet);
+                }
+                return;
+            }
+            try {
+                ((SocketBatchObserver) observer).packetsReceived(SSLSocketChannelResponder.this, packets);
+            } catch (Exception e) {
+                nioService.notifyException(e);
+            }
+        }
+
+        public void packetSent(NIOSocket socket, Object tag) {
+            SSLSocketChannelResponder.this.packetSent(socket, tag);
+        }
+
+        public void writabilityChanged(NIOSocket socket, boolean writable) {
+            SSLSocketChannelResponder.this.writabilityChanged(socket, writable);
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import org.framework.rodolfo.freire.git.asuna.util.NIOUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class FileTransfer {
+
+    private final FileChannel fileChannel;
+    private final long end;
+    private final Object tag;
+    private final boolean closeWhenDone;
+    private long position;
+
+    public FileTransfer(FileChannel fileChannel, long offset, long length, Object tag, boolean closeWhenDone) throws IOException {
+        if (offset < 0) throw new IllegalArgumentException("Offset must be at least 0, was: " + offset);
+        if (length < 0) throw new IllegalArgumentException("Length must be at least 0, was: " + length);
+        if (offset + length > fileChannel.size()) {
+            throw new IllegalArgumentException("File region " + offset + "+" + length + " exceeds file size " + fileChannel.size());
+        }
+        this.fileChannel = fileChannel;
+        this.tag = tag;
+        this.closeWhenDone = closeWhenDone;
+        position = offset;
+        end = offset + length;
+    }
+
+    public long remaining() {
+        return end - position;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        return transferTo(channel, end - position);
+    }
+
+    public long transferTo(WritableByteChannel channel, long maxBytes) throws IOException {
+        long transferred = fileChannel.transferTo(position, Math.min(maxBytes, end - position), channel);
+        if (transferred == 0 && position >= fileChannel.size()) {
+            throw new EOFException("File ended at " + position + " before " + end);
+        }
+        position += transferred;
+        return transferred;
+    }
+
+    public ByteBuffer map(long length) throws IOException {
+        ByteBuffer chunk = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, end - position));
+        position += chunk.remaining();
+        return chunk;
+    }
+
+    public void close() {
+        if (closeWhenDone) NIOUtils.closeChannelSilently(fileChannel);
+    }
+}
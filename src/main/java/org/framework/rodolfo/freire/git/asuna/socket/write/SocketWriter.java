@@ -2,23 +2,55 @@ package org.framework.rodolfo.freire.git.asuna.socket.write;
 
 import org.framework.rodolfo.freire.git.asuna.packet.write.PacketWriter;
 import org.framework.rodolfo.freire.git.asuna.packet.write.RawPacketWriter;
+import org.framework.rodolfo.freire.git.asuna.socket.BufferReleaser;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 public class SocketWriter {
 
+    public final static int MAX_GATHER_BUFFERS = 1024;
+    public final static int MAX_GATHER_BYTES = 256 * 1024;
+    private final static int INITIAL_CAPACITY = 4;
+    private final static Object FILE_CHUNK = new Object();
+
+    private final Consumer<Object> sentObserver;
     private long bytesWritten;
-    private ByteBuffer[] byteBuffers;
     private PacketWriter packetWriter;
-    private Object mTag;
+    private ByteBuffer[] byteBuffers;
+    private int bufferCount;
     private int currentBuffer;
+    private long gatheredBytes;
+    private ByteBuffer[][] packetBuffers;
+    private PacketWriter[] packetOwners;
+    private ByteBuffer[][] packetInputs;
+    private BufferReleaser[] packetReleasers;
+    private Object[] packetTags;
+    private int[] packetEnds;
+    private int packetCount;
+    private int currentPacket;
+    private FileTransfer fileTransfer;
+    private long fileBytesLeft;
 
     public SocketWriter() {
+        this(tag -> {
+        });
+    }
+
+    public SocketWriter(Consumer<Object> sentObserver) {
+        this.sentObserver = sentObserver;
         bytesWritten = 0;
-        byteBuffers = null;
         packetWriter = RawPacketWriter.INSTANCE;
+        byteBuffers = new ByteBuffer[INITIAL_CAPACITY];
+        packetBuffers = new ByteBuffer[INITIAL_CAPACITY][];
+        packetOwners = new PacketWriter[INITIAL_CAPACITY];
+        packetInputs = new ByteBuffer[INITIAL_CAPACITY][];
+        packetReleasers = new BufferReleaser[INITIAL_CAPACITY];
+        packetTags = new Object[INITIAL_CAPACITY];
+        packetEnds = new int[INITIAL_CAPACITY];
     }
 
     public PacketWriter getPacketWriter() {
@@ -30,49 +62,184 @@ public class SocketWriter {
     }
 
     public boolean isEmpty() {
-        return byteBuffers == null;
+        return packetCount == 0 && fileTransfer == null;
     }
 
-    public void setPacket(byte[] data, Object tag) {
-        if (!isEmpty()) throw new IllegalStateException("This method should only called when m_writeBuffers == null");
-        byteBuffers = packetWriter.write(new ByteBuffer[]{ByteBuffer.wrap(data)});
-        currentBuffer = 0;
-        mTag = tag;
+    public void setFile(FileTransfer fileTransfer) {
+        setFile(fileTransfer, fileTransfer.remaining());
+    }
+
+    // Sends at most length bytes, the file is only finished and reported once its last byte is out.
+    public void setFile(FileTransfer fileTransfer, long length) {
+        if (!isEmpty()) throw new IllegalStateException("A file can only be started when the writer is empty");
+        this.fileTransfer = fileTransfer;
+        fileBytesLeft = length;
+    }
+
+    public boolean canAccept(long length) {
+        return packetCount == 0
+                || (bufferCount < MAX_GATHER_BUFFERS && gatheredBytes + length <= MAX_GATHER_BYTES);
+    }
+
+    public void addPacket(byte[] data, Object tag) {
+        addPacket(new ByteBuffer[]{ByteBuffer.wrap(data)}, tag, null);
+    }
+
+    public void addPacket(ByteBuffer[] data, Object tag, BufferReleaser releaser) {
+        ByteBuffer[] buffers;
+        try {
+            buffers = packetWriter.write(data);
+        } catch (RuntimeException e) {
+            if (releaser != null) releaser.release(data);
+            throw e;
+        }
+        if (packetCount == packetEnds.length) growPackets();
+        packetBuffers[packetCount] = buffers;
+        packetOwners[packetCount] = packetWriter;
+        packetInputs[packetCount] = releaser == null ? null : data;
+        packetReleasers[packetCount] = releaser;
+        packetTags[packetCount] = tag;
+        if (buffers != null) {
+            if (bufferCount + buffers.length > byteBuffers.length) {
+                byteBuffers = Arrays.copyOf(byteBuffers, Math.max(byteBuffers.length << 1, bufferCount + buffers.length));
+            }
+            for (ByteBuffer buffer : buffers) {
+                byteBuffers[bufferCount++] = buffer;
+                gatheredBytes += buffer.remaining();
+            }
+        }
+        packetEnds[packetCount++] = bufferCount;
+    }
+
+    private void growPackets() {
+        int capacity = packetEnds.length << 1;
+        packetBuffers = Arrays.copyOf(packetBuffers, capacity);
+        packetOwners = Arrays.copyOf(packetOwners, capacity);
+        packetInputs = Arrays.copyOf(packetInputs, capacity);
+        packetReleasers = Arrays.copyOf(packetReleasers, capacity);
+        packetTags = Arrays.copyOf(packetTags, capacity);
+        packetEnds = Arrays.copyOf(packetEnds, capacity);
     }
 
     public boolean write(SocketChannel channel) throws IOException {
-        if (byteBuffers == null || (currentBuffer == byteBuffers.length - 1 && !byteBuffers[currentBuffer].hasRemaining())) {
-            byteBuffers = null;
-            return true;
+        if (isEmpty()) return true;
+
+        if (packetCount == 0) {
+            // Raw bytes can go from the page cache straight to the socket, anything else is encoded in chunks.
+            if (packetWriter == RawPacketWriter.INSTANCE) return transferFile(channel);
+            addFileChunk();
         }
 
-        long written = channel.write(byteBuffers, currentBuffer, byteBuffers.length - currentBuffer);
+        skipWrittenBuffers();
+        completePackets();
+
+        if (isEmpty()) return true;
+
+        // One gathering write covers every packet collected so far.
+        long written = channel.write(byteBuffers, currentBuffer, bufferCount - currentBuffer);
 
         if (written == 0) return false;
 
         bytesWritten += written;
 
-        for (int i = currentBuffer; i < byteBuffers.length; i++) {
-            if (byteBuffers[i].hasRemaining()) {
-                currentBuffer = i;
-                break;
-            }
-            byteBuffers[i] = null;
+        skipWrittenBuffers();
+        completePackets();
+
+        return true;
+
+    }
+
+    private boolean transferFile(SocketChannel channel) throws IOException {
+        long transferred = fileBytesLeft > 0 ? fileTransfer.transferTo(channel, fileBytesLeft) : 0;
+        bytesWritten += transferred;
+        fileBytesLeft -= transferred;
+        if (fileBytesLeft > 0) return transferred > 0;
+        if (fileTransfer.remaining() > 0) {
+            // The rest of the file is sent later, the write lane still owns it.
+            fileTransfer = null;
+            return true;
         }
+        Object tag = fileTransfer.getTag();
+        finishFile();
+        sentObserver.accept(tag);
+        return true;
+    }
 
-        if (byteBuffers[currentBuffer] == null) {
-            byteBuffers = null;
+    private void addFileChunk() throws IOException {
+        ByteBuffer chunk = fileTransfer.map(Math.min(MAX_GATHER_BYTES, fileBytesLeft));
+        fileBytesLeft -= chunk.remaining();
+        boolean last = fileTransfer.remaining() == 0;
+        // Only the last chunk carries the tag, so packetSent fires once for the whole file.
+        addPacket(new ByteBuffer[]{chunk}, last ? fileTransfer.getTag() : FILE_CHUNK, null);
+        if (last) {
+            finishFile();
+        } else if (fileBytesLeft == 0) {
+            fileTransfer = null;
         }
+    }
 
-        return true;
+    private void finishFile() {
+        fileTransfer.close();
+        fileTransfer = null;
+    }
 
+    private void skipWrittenBuffers() {
+        while (currentBuffer < bufferCount && !byteBuffers[currentBuffer].hasRemaining()) {
+            currentBuffer++;
+        }
     }
 
-    public long getBytesWritten() {
-        return bytesWritten;
+    private void completePackets() {
+        while (currentPacket < packetCount && packetEnds[currentPacket] <= currentBuffer) {
+            Object tag = packetTags[currentPacket];
+            releasePacket(currentPacket++);
+            if (tag != FILE_CHUNK) sentObserver.accept(tag);
+        }
+        if (currentPacket == packetCount) reset();
     }
 
-    public Object getTag() {
-        return mTag;
+    private void releasePacket(int packet) {
+        ByteBuffer[] buffers = packetBuffers[packet];
+        PacketWriter owner = packetOwners[packet];
+        ByteBuffer[] inputs = packetInputs[packet];
+        BufferReleaser releaser = packetReleasers[packet];
+        packetBuffers[packet] = null;
+        packetOwners[packet] = null;
+        packetInputs[packet] = null;
+        packetReleasers[packet] = null;
+        packetTags[packet] = null;
+        if (buffers != null) owner.release(buffers);
+        // Caller buffers go back only once everything encoded from them is on the wire.
+        if (releaser != null) releaser.release(inputs);
+    }
+
+    private void reset() {
+        Arrays.fill(byteBuffers, 0, bufferCount, null);
+        bufferCount = 0;
+        currentBuffer = 0;
+        gatheredBytes = 0;
+        packetCount = 0;
+        currentPacket = 0;
+    }
+
+    public void discard() {
+        while (currentPacket < packetCount) {
+            releasePacket(currentPacket++);
+        }
+        reset();
+        if (fileTransfer != null) finishFile();
+    }
+
+    public long remaining() {
+        long remaining = 0;
+        for (int i = currentBuffer; i < bufferCount; i++) {
+            remaining += byteBuffers[i].remaining();
+        }
+        if (fileTransfer != null) remaining += fileBytesLeft;
+        return remaining;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
     }
 }
@@ -0,0 +1,114 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import org.framework.rodolfo.freire.git.asuna.socket.BufferReleaser;
+
+import java.nio.ByteBuffer;
+
+public class WriteEntry {
+
+    public final static int PACKET = 0;
+    public final static int BUFFERS = 1;
+    public final static int FILE = 2;
+    public final static int EVENT = 3;
+    public final static int CLOSE = 4;
+    public final static int BARRIER = 5;
+
+    volatile WriteEntry next;
+    private int type;
+    private byte[] packet;
+    private ByteBuffer[] buffers;
+    private BufferReleaser releaser;
+    private FileTransfer file;
+    private Runnable event;
+    private Object tag;
+    private long length;
+
+    public WriteEntry initPacket(byte[] packet, Object tag) {
+        type = PACKET;
+        this.packet = packet;
+        this.tag = tag;
+        length = packet.length;
+        return this;
+    }
+
+    public WriteEntry initBuffers(ByteBuffer[] buffers, Object tag, BufferReleaser releaser, long length) {
+        type = BUFFERS;
+        this.buffers = buffers;
+        this.tag = tag;
+        this.releaser = releaser;
+        this.length = length;
+        return this;
+    }
+
+    public WriteEntry initFile(FileTransfer file) {
+        type = FILE;
+        this.file = file;
+        return this;
+    }
+
+    public WriteEntry initEvent(Runnable event) {
+        type = EVENT;
+        this.event = event;
+        return this;
+    }
+
+    public WriteEntry initBarrier(Runnable event) {
+        type = BARRIER;
+        this.event = event;
+        return this;
+    }
+
+    public WriteEntry initClose() {
+        type = CLOSE;
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public byte[] getPacket() {
+        return packet;
+    }
+
+    public ByteBuffer[] getBuffers() {
+        return buffers;
+    }
+
+    public BufferReleaser getReleaser() {
+        return releaser;
+    }
+
+    public FileTransfer getFile() {
+        return file;
+    }
+
+    public Runnable getEvent() {
+        return event;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public long getLength() {
+        return type == FILE ? file.remaining() : length;
+    }
+
+    // Returns whatever the entry still owns, for entries dropped without being written.
+    public void discard() {
+        if (type == FILE) file.close();
+        if (type == BUFFERS && releaser != null) releaser.release(buffers);
+    }
+
+    void clear() {
+        next = null;
+        packet = null;
+        buffers = null;
+        releaser = null;
+        file = null;
+        event = null;
+        tag = null;
+        length = 0;
+    }
+}
@@ -0,0 +1,44 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class WriteEntryPool {
+
+    public final static int DEFAULT_THREAD_CACHE_SIZE = 64;
+    public final static int DEFAULT_SHARED_CACHE_SIZE = 1024;
+
+    private final ArrayBlockingQueue<WriteEntry> sharedCache;
+    private final ThreadLocal<ArrayDeque<WriteEntry>> threadCaches;
+    private final int threadCacheSize;
+
+    public WriteEntryPool() {
+        this(DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CACHE_SIZE);
+    }
+
+    public WriteEntryPool(int threadCacheSize, int sharedCacheSize) {
+        if (threadCacheSize < 0 || sharedCacheSize < 1) {
+            throw new IllegalArgumentException("Invalid cache sizes: " + threadCacheSize + "/" + sharedCacheSize);
+        }
+        this.threadCacheSize = threadCacheSize;
+        sharedCache = new ArrayBlockingQueue<>(sharedCacheSize);
+        threadCaches = ThreadLocal.withInitial(ArrayDeque::new);
+    }
+
+    public WriteEntry acquire() {
+        WriteEntry entry = threadCaches.get().poll();
+        if (entry == null) entry = sharedCache.poll();
+        return entry == null ? new WriteEntry() : entry;
+    }
+
+    // Entries are released on the loop thread, the shared cache hands them back to writers on other threads.
+    public void release(WriteEntry entry) {
+        entry.clear();
+        ArrayDeque<WriteEntry> threadCache = threadCaches.get();
+        if (threadCache.size() < threadCacheSize) {
+            threadCache.push(entry);
+        } else {
+            sharedCache.offer(entry);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// Intrusive multi-producer single-consumer queue (Vyukov), only the loop thread may peek or poll.
+public class WriteLane {
+
+    private final WriteEntry stub;
+    private final AtomicReference<WriteEntry> tail;
+    private WriteEntry head;
+    private volatile int weight;
+    private long deficit;
+    private boolean closed;
+    private boolean held;
+
+    public WriteLane(int weight) {
+        stub = new WriteEntry();
+        tail = new AtomicReference<>(stub);
+        head = stub;
+        setWeight(weight);
+        deficit = 0;
+        closed = false;
+        held = false;
+    }
+
+    public void offer(WriteEntry entry) {
+        entry.next = null;
+        WriteEntry previous = tail.getAndSet(entry);
+        previous.next = entry;
+    }
+
+    public WriteEntry peek() {
+        WriteEntry first = head;
+        if (first == stub) {
+            WriteEntry next = first.next;
+            if (next == null) return null;
+            head = next;
+            first = next;
+        }
+        return first;
+    }
+
+    // Returns null while the entry behind the head is swapped in but not linked yet, even though peek sees the head.
+    public WriteEntry poll() {
+        WriteEntry first = peek();
+        if (first == null) return null;
+        WriteEntry next = first.next;
+        if (next == null) {
+            if (tail.get() != first) return null;
+            offer(stub);
+            next = first.next;
+            if (next == null) return null;
+        }
+        head = next;
+        first.next = null;
+        return first;
+    }
+
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        if (weight < 1) throw new IllegalArgumentException("Lane weight must be at least 1, was: " + weight);
+        this.weight = weight;
+    }
+
+    public long getDeficit() {
+        return deficit;
+    }
+
+    public void setDeficit(long deficit) {
+        this.deficit = deficit;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    public void hold() {
+        held = true;
+    }
+
+    public void resume() {
+        held = false;
+    }
+}
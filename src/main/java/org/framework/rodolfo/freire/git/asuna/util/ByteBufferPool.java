@@ -0,0 +1,123 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ExceptionObserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class ByteBufferPool {
+
+    public final static int MIN_POOLED_SIZE = 256;
+    public final static int MAX_POOLED_SIZE = 1024 * 1024;
+    public final static int DEFAULT_THREAD_CACHE_SIZE = 32;
+    public final static int DEFAULT_SHARED_CACHE_SIZE = 256;
+
+    private final static int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private final static int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+
+    public final static ByteBufferPool SHARED = new ByteBufferPool(false);
+
+    private final ArrayBlockingQueue<ByteBuffer>[] sharedCaches;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+    private final int threadCacheSize;
+    private final Map<ByteBuffer, Throwable> allocations;
+
+    public ByteBufferPool(boolean leakDetection) {
+        this(DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CACHE_SIZE, leakDetection);
+    }
+
+    public ByteBufferPool(int threadCacheSize, int sharedCacheSize, boolean leakDetection) {
+        if (threadCacheSize < 0 || sharedCacheSize < 1) {
+            throw new IllegalArgumentException("Invalid cache sizes: " + threadCacheSize + "/" + sharedCacheSize);
+        }
+        this.threadCacheSize = threadCacheSize;
+        sharedCaches = newSharedCaches(sharedCacheSize);
+        threadCaches = ThreadLocal.withInitial(ByteBufferPool::newThreadCaches);
+        allocations = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    private static ArrayBlockingQueue<ByteBuffer>[] newSharedCaches(int sharedCacheSize) {
+        @SuppressWarnings("unchecked")
+        ArrayBlockingQueue<ByteBuffer>[] caches = (ArrayBlockingQueue<ByteBuffer>[]) new ArrayBlockingQueue<?>[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            caches[i] = new ArrayBlockingQueue<>(sharedCacheSize);
+        }
+        return caches;
+    }
+
+    private static ArrayDeque<ByteBuffer>[] newThreadCaches() {
+        @SuppressWarnings("unchecked")
+        ArrayDeque<ByteBuffer>[] caches = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            caches[i] = new ArrayDeque<>();
+        }
+        return caches;
+    }
+
+    public ByteBuffer acquire(int size) {
+        if (size < 0) throw new IllegalArgumentException("Buffer size must be positive, was: " + size);
+        ByteBuffer buffer;
+        if (size > MAX_POOLED_SIZE) {
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            int sizeClass = sizeClassOf(size);
+            buffer = threadCaches.get()[sizeClass].poll();
+            if (buffer == null) buffer = sharedCaches[sizeClass].poll();
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(MIN_POOLED_SIZE << sizeClass);
+            buffer.clear();
+            buffer.limit(size);
+        }
+        if (allocations != null) allocations.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        if (allocations != null && allocations.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer was released twice or not acquired from this pool");
+        }
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || buffer.isReadOnly() || capacity < MIN_POOLED_SIZE || capacity > MAX_POOLED_SIZE
+                || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = sizeClassOf(capacity);
+        ArrayDeque<ByteBuffer> threadCache = threadCaches.get()[sizeClass];
+        if (threadCache.size() < threadCacheSize) {
+            threadCache.push(buffer);
+        } else {
+            sharedCaches[sizeClass].offer(buffer);
+        }
+    }
+
+    private static int sizeClassOf(int size) {
+        if (size <= MIN_POOLED_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return allocations != null;
+    }
+
+    public int getOutstandingCount() {
+        return allocations == null ? -1 : allocations.size();
+    }
+
+    public int reportLeaks(ExceptionObserver observer) {
+        if (allocations == null) return 0;
+        List<Throwable> traces;
+        synchronized (allocations) {
+            traces = new ArrayList<>(allocations.values());
+        }
+        for (Throwable trace : traces) {
+            observer.notifyExceptionThrown(new IllegalStateException("Pooled buffer was never released", trace));
+        }
+        return traces.size();
+    }
+}
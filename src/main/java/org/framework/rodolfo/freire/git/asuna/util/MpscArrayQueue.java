@@ -0,0 +1,83 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class MpscArrayQueue<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex;
+    private final int mask;
+    private volatile long consumerIndex;
+
+    public MpscArrayQueue(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2, was: " + capacity);
+        if (capacity > 1 << 30) throw new IllegalArgumentException("Capacity too large: " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        producerIndex = new AtomicLong(0L);
+        consumerIndex = 0L;
+        mask = size - 1;
+    }
+
+    public boolean offer(E element) {
+        if (element == null) throw new NullPointerException();
+        long index = producerIndex.get();
+        while (true) {
+            int offset = (int) index & mask;
+            long difference = sequences.get(offset) - index;
+            if (difference == 0) {
+                if (producerIndex.compareAndSet(index, index + 1)) {
+                    elements.lazySet(offset, element);
+                    sequences.set(offset, index + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            index = producerIndex.get();
+        }
+    }
+
+    public E poll() {
+        long index = consumerIndex;
+        int offset = (int) index & mask;
+        if (sequences.get(offset) != index + 1) return null;
+        E element = elements.get(offset);
+        elements.lazySet(offset, null);
+        consumerIndex = index + 1;
+        sequences.set(offset, index + mask + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        long index = consumerIndex;
+        return sequences.get((int) index & mask) != index + 1;
+    }
+
+    public int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public List<E> snapshot() {
+        List<E> list = new ArrayList<>();
+        long end = producerIndex.get();
+        for (long index = consumerIndex; index < end; index++) {
+            E element = elements.get((int) index & mask);
+            if (element != null) list.add(element);
+        }
+        return list;
+    }
+}
@@ -127,6 +127,26 @@ public class NIOUtils {
         return copy;
     }
 
+    // Views and copies start out big endian, so both take over the order of their source.
+    public static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.asReadOnlyBuffer().order(buffer.order());
+        slice.limit(buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    public static ByteBuffer retain(ByteBuffer slice) {
+        return copy(slice.duplicate()).order(slice.order());
+    }
+
+    public static ByteBuffer copy(ByteBuffer buffer, ByteBufferPool pool) {
+        if (buffer == null) return null;
+        ByteBuffer copy = pool.acquire(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
     public static long remaining(ByteBuffer[] byteBuffers) {
         long length = 0;
         for (ByteBuffer buffer : byteBuffers) length += buffer.remaining();
@@ -149,4 +169,21 @@ public class NIOUtils {
         buffer.flip();
         return buffer;
     }
-}
\ No newline at end of file
+
+    public static ByteBuffer join(ByteBuffer buffer1, ByteBuffer buffer2, ByteBufferPool pool) {
+        if (buffer2 == null || buffer2.remaining() == 0) return NIOUtils.copy(buffer1, pool);
+        if (buffer1 == null || buffer1.remaining() == 0) return NIOUtils.copy(buffer2, pool);
+        ByteBuffer buffer = pool.acquire(buffer1.remaining() + buffer2.remaining());
+        buffer.put(buffer1);
+        buffer.put(buffer2);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void checkWatermarks(long lowWatermark, long highWatermark) {
+        if (lowWatermark == -1 && highWatermark == -1) return;
+        if (lowWatermark < 0 || highWatermark < 1 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high, was: " + lowWatermark + ", " + highWatermark);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class SelectedKeySet extends AbstractSet<SelectionKey> {
+
+    private SelectionKey[] keys;
+    private int size;
+
+    public SelectedKeySet() {
+        keys = new SelectionKey[1024];
+        size = 0;
+    }
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public SelectionKey get(int index) {
+        return keys[index];
+    }
+
+    public void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int index = 0;
+
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            public SelectionKey next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return keys[index++];
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package org.framework.rodolfo.freire.git.asuna.packet.read;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DelimiterPacketReaderTest {
+
+    @Test
+    void findsDelimiterAtEveryWordOffset() throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int offset = 0; offset < 24; offset++) {
+                for (int skip = 0; skip < 8; skip++) {
+                    byte[] data = filled(skip + offset + 1 + 9);
+                    data[skip + offset] = '\n';
+                    ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+                    buffer.position(skip);
+                    byte[] packet = new AsciiLinePacketReader().nextPacket(buffer);
+                    assertArrayEquals(Arrays.copyOfRange(data, skip, skip + offset), packet);
+                    assertEquals(skip + offset + 1, buffer.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    void ignoresBytesThatOnlyDifferInTheHighBit() throws Exception {
+        byte[] data = filled(20);
+        Arrays.fill(data, 0, 16, (byte) ('\n' | 0x80));
+        data[16] = '\n';
+        assertEquals(16, new AsciiLinePacketReader().nextPacket(ByteBuffer.wrap(data)).length);
+    }
+
+    @Test
+    void findsDelimiterAcrossPartialReads() throws Exception {
+        for (int chunk = 1; chunk < 20; chunk++) {
+            byte[] data = filled(64);
+            data[37] = '\n';
+            data[45] = '\n';
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            AsciiLinePacketReader reader = new AsciiLinePacketReader();
+            PacketScan scan = new PacketScan();
+            int received = 0;
+            for (int limit = chunk; limit - chunk < data.length; limit += chunk) {
+                buffer.limit(Math.min(limit, data.length));
+                byte[] packet;
+                while ((packet = scan.nextPacket(reader, buffer)) != null) {
+                    assertEquals(received == 0 ? 37 : 7, packet.length);
+                    received++;
+                }
+            }
+            assertEquals(2, received);
+            assertEquals(46, buffer.position());
+        }
+    }
+
+    @Test
+    void slicesAcrossPartialReads() throws Exception {
+        byte[] data = "partial line\n".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        AsciiLinePacketReader reader = new AsciiLinePacketReader();
+        PacketScan scan = new PacketScan();
+        buffer.limit(9);
+        assertNull(scan.nextSlice(reader, buffer));
+        buffer.limit(data.length);
+        ByteBuffer slice = scan.nextSlice(reader, buffer);
+        assertEquals("partial line", StandardCharsets.US_ASCII.decode(slice).toString());
+        assertEquals(data.length, buffer.position());
+    }
+
+    @Test
+    void keepsScanStatePerConnection() throws Exception {
+        AsciiLinePacketReader reader = new AsciiLinePacketReader();
+        PacketScan first = new PacketScan();
+        PacketScan second = new PacketScan();
+        // Both connections read into the same shared buffer, one after the other.
+        ByteBuffer shared = ByteBuffer.allocate(64);
+        shared.put("abc".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertNull(first.nextPacket(reader, shared));
+
+        shared.clear();
+        shared.put("x\ny\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertEquals("x", new String(second.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+        assertEquals("y", new String(second.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+        assertNull(second.nextPacket(reader, shared));
+
+        shared.clear();
+        shared.put("abcdef\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertEquals("abcdef", new String(first.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void rescansAfterReaderChanges() throws Exception {
+        PacketScan scan = new PacketScan();
+        ByteBuffer buffer = ByteBuffer.wrap("a\u0000b\n".getBytes(StandardCharsets.US_ASCII));
+        buffer.limit(3);
+        assertNull(scan.nextPacket(new AsciiLinePacketReader(), buffer));
+        buffer.limit(4);
+        assertEquals(1, scan.nextPacket(new ZeroDelimitedPacketReader(), buffer).length);
+    }
+
+    @Test
+    void rejectsPacketsOverMaxSize() throws Exception {
+        AsciiLinePacketReader reader = new AsciiLinePacketReader(16);
+        ByteBuffer buffer = ByteBuffer.wrap(filled(40));
+        buffer.limit(12);
+        assertNull(reader.nextPacket(buffer));
+        buffer.limit(40);
+        assertThrows(ProtocolViolationException.class, () -> reader.nextPacket(buffer));
+    }
+
+    private static byte[] filled(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) ('a' + i % 26);
+        return data;
+    }
+}
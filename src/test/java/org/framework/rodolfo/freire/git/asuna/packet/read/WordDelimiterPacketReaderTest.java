@@ -0,0 +1,88 @@
+package org.framework.rodolfo.freire.git.asuna.packet.read;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WordDelimiterPacketReaderTest {
+
+    @Test
+    void findsDelimiterSplitAcrossPartialReads() throws Exception {
+        byte[] data = ascii("first<END>second one<END>ENthird");
+        for (int chunk = 1; chunk < data.length; chunk++) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            WordDelimiterPacketReader reader = new WordDelimiterPacketReader("<END>");
+            PacketScan scan = new PacketScan();
+            StringBuilder packets = new StringBuilder();
+            for (int limit = chunk; limit - chunk < data.length; limit += chunk) {
+                buffer.limit(Math.min(limit, data.length));
+                byte[] packet;
+                while ((packet = scan.nextPacket(reader, buffer)) != null) {
+                    packets.append(new String(packet, StandardCharsets.US_ASCII)).append('|');
+                }
+            }
+            assertEquals("first|second one|", packets.toString());
+            assertEquals(25, buffer.position());
+        }
+    }
+
+    @Test
+    void findsRepeatedPrefixDelimiter() throws Exception {
+        WordDelimiterPacketReader reader = new WordDelimiterPacketReader("aab");
+        PacketScan scan = new PacketScan();
+        ByteBuffer buffer = ByteBuffer.wrap(ascii("xaaaab"));
+        buffer.limit(5);
+        assertNull(scan.nextPacket(reader, buffer));
+        buffer.limit(6);
+        assertEquals(3, scan.nextPacket(reader, buffer).length);
+    }
+
+    @Test
+    void keepsScanStatePerConnection() throws Exception {
+        WordDelimiterPacketReader reader = new WordDelimiterPacketReader("\r\n");
+        PacketScan first = new PacketScan();
+        PacketScan second = new PacketScan();
+        // Both connections read into the same shared buffer, one after the other.
+        ByteBuffer shared = ByteBuffer.allocate(64);
+        shared.put(ascii("no delimiter yet")).flip();
+        assertNull(first.nextPacket(reader, shared));
+
+        shared.clear();
+        shared.put(ascii("ok\r\nfine\r\n")).flip();
+        assertEquals("ok", new String(second.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+        assertEquals("fine", new String(second.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+
+        shared.clear();
+        shared.put(ascii("no delimiter yet, now\r\n")).flip();
+        assertEquals("no delimiter yet, now", new String(first.nextPacket(reader, shared), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void slicesAcrossPartialReads() throws Exception {
+        byte[] data = ascii("sliced\r\n");
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        WordDelimiterPacketReader reader = new WordDelimiterPacketReader("\r\n");
+        PacketScan scan = new PacketScan();
+        buffer.limit(7);
+        assertNull(scan.nextSlice(reader, buffer));
+        buffer.limit(data.length);
+        assertEquals("sliced", StandardCharsets.US_ASCII.decode(scan.nextSlice(reader, buffer)).toString());
+        assertEquals(data.length, buffer.position());
+    }
+
+    @Test
+    void rejectsPacketsOverMaxSize() {
+        WordDelimiterPacketReader reader = new WordDelimiterPacketReader("\r\n", 8);
+        assertThrows(ProtocolViolationException.class, () -> reader.nextPacket(ByteBuffer.wrap(ascii("a line that is too long"))));
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
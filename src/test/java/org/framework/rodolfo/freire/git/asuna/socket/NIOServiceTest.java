@@ -0,0 +1,84 @@
+package org.framework.rodolfo.freire.git.asuna.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NIOServiceTest {
+
+    @Test
+    void runsEventsQueuedPastTheQueueCapacity() throws Exception {
+        NIOService service = new NIOService(NIOService.DEFAULT_IO_BUFFER_SIZE, 4);
+        try {
+            AtomicInteger ran = new AtomicInteger();
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 100; i++) service.queue(ran::incrementAndGet);
+            });
+            producer.start();
+            producer.join();
+            assertEquals(100, service.getQueue().size());
+            assertEquals(100, service.selectNow());
+            assertEquals(100, ran.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void wakesTheLoopOnlyWhileItIsParked() throws Exception {
+        NIOService service = new NIOService();
+        try {
+            AtomicInteger ran = new AtomicInteger();
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch queued = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    running.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                service.queue(ran::incrementAndGet);
+                queued.countDown();
+            });
+            producer.start();
+            // Timers run after the selector, so the event queued meanwhile waits for the next select.
+            service.executeLater(() -> {
+                running.countDown();
+                try {
+                    queued.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, 0);
+            assertEquals(2, service.selectNow());
+            assertEquals(0, ran.get());
+            // That event left no wakeup behind to cut the blocking part of this select short.
+            long start = System.nanoTime();
+            assertEquals(1, service.select(200));
+            assertTrue(System.nanoTime() - start >= 150_000_000L);
+            assertEquals(1, ran.get());
+
+            Thread late = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                service.queue(ran::incrementAndGet);
+            });
+            late.start();
+            start = System.nanoTime();
+            assertEquals(1, service.select(5000));
+            assertTrue(System.nanoTime() - start < 2_000_000_000L);
+            assertEquals(2, ran.get());
+            producer.join();
+            late.join();
+        } finally {
+            service.close();
+        }
+    }
+}
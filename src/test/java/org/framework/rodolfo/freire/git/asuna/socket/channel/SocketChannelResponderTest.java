@@ -0,0 +1,147 @@
+package org.framework.rodolfo.freire.git.asuna.socket.channel;
+
+import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
+import org.framework.rodolfo.freire.git.asuna.socket.NIOSocket;
+import org.framework.rodolfo.freire.git.asuna.socket.SocketObserverAdapter;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SocketChannelResponderTest {
+
+    private static final int PACKET_SIZE = 4096;
+    private static final int PACKETS_PER_LANE = 256;
+
+    @Test
+    void sharesTheSocketByLaneWeight() throws Exception {
+        // Normal has four times the weight of bulk by default.
+        int bulkSent = bulkSentWhenNormalFinished(receive(-1, -1));
+        assertTrue(bulkSent >= 48 && bulkSent <= 80, "bulk sent " + bulkSent);
+    }
+
+    @Test
+    void followsChangedLaneWeights() throws Exception {
+        int bulkSent = bulkSentWhenNormalFinished(receive(1, 1));
+        assertTrue(bulkSent >= 240, "bulk sent " + bulkSent);
+    }
+
+    @Test
+    void sendsControlTrafficFirst() throws Exception {
+        List<int[]> received = receive(-1, -1);
+        assertEquals(NIOSocket.PRIORITY_CONTROL, received.get(0)[0]);
+    }
+
+    @Test
+    void countsInboundBytesOnlyWithAWatermark() throws Exception {
+        NIOService service = new NIOService();
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            NIOSocket socket = service.openSocket(address.getAddress(), address.getPort());
+            long[] received = new long[1];
+            socket.listen(new SocketObserverAdapter() {
+                public void packetReceived(NIOSocket nioSocket, byte[] packet) {
+                    received[0] += packet.length;
+                }
+            });
+            try (SocketChannel peer = server.accept()) {
+                peer.write(ByteBuffer.allocate(1000));
+                while (received[0] < 1000) service.selectNow();
+                assertEquals(0, socket.getInboundBytes());
+                assertEquals(0, service.getInboundBytes());
+
+                socket.setInboundWatermarks(4000, 8000);
+                peer.write(ByteBuffer.allocate(1000));
+                while (received[0] < 2000) service.selectNow();
+                assertEquals(1000, socket.getInboundBytes());
+                assertEquals(1000, service.getInboundBytes());
+                socket.inboundConsumed(2000);
+                assertEquals(0, socket.getInboundBytes());
+                assertEquals(0, service.getInboundBytes());
+
+                socket.setInboundWatermarks(-1, -1);
+                service.setInboundWatermarks(4000, 8000);
+                peer.write(ByteBuffer.allocate(1000));
+                while (received[0] < 3000) service.selectNow();
+                assertEquals(1000, socket.getInboundBytes());
+                assertEquals(1000, service.getInboundBytes());
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    private static int bulkSentWhenNormalFinished(List<int[]> received) {
+        int normal = 0;
+        int bulk = 0;
+        for (int[] packet : received) {
+            if (packet[0] == NIOSocket.PRIORITY_NORMAL && ++normal == PACKETS_PER_LANE) return bulk;
+            if (packet[0] == NIOSocket.PRIORITY_BULK) bulk++;
+        }
+        throw new AssertionError("normal lane did not finish");
+    }
+
+    // Queues every packet before the loop gets to write any, then returns the lane and number of each packet as received.
+    private static List<int[]> receive(int normalWeight, int bulkWeight) throws Exception {
+        NIOService service = new NIOService();
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            NIOSocket socket = service.openSocket(address.getAddress(), address.getPort());
+            boolean[] opened = new boolean[1];
+            socket.listen(new SocketObserverAdapter() {
+                public void connectionOpened(NIOSocket nioSocket) {
+                    opened[0] = true;
+                }
+            });
+            try (SocketChannel peer = server.accept()) {
+                while (!opened[0]) service.selectNow();
+                if (normalWeight != -1) socket.setLaneWeights(normalWeight, bulkWeight);
+
+                Thread writer = new Thread(() -> {
+                    for (int i = 0; i < PACKETS_PER_LANE; i++) {
+                        socket.write(packet(NIOSocket.PRIORITY_BULK, i), null, NIOSocket.PRIORITY_BULK);
+                        socket.write(packet(NIOSocket.PRIORITY_NORMAL, i), null, NIOSocket.PRIORITY_NORMAL);
+                    }
+                    socket.write(packet(NIOSocket.PRIORITY_CONTROL, 0), null, NIOSocket.PRIORITY_CONTROL);
+                });
+                writer.start();
+                writer.join();
+
+                peer.configureBlocking(false);
+                ByteBuffer buffer = ByteBuffer.allocate(PACKET_SIZE * 8);
+                int[] next = new int[3];
+                List<int[]> received = new ArrayList<>();
+                while (received.size() < PACKETS_PER_LANE * 2 + 1) {
+                    service.selectNow();
+                    peer.read(buffer);
+                    buffer.flip();
+                    while (buffer.remaining() >= PACKET_SIZE) {
+                        int lane = buffer.get(buffer.position());
+                        int number = buffer.getInt(buffer.position() + 1);
+                        assertEquals(next[lane]++, number);
+                        received.add(new int[]{lane, number});
+                        buffer.position(buffer.position() + PACKET_SIZE);
+                    }
+                    buffer.compact();
+                }
+                return received;
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    private static byte[] packet(int lane, int number) {
+        ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+        packet.put((byte) lane).putInt(number);
+        return packet.array();
+    }
+}
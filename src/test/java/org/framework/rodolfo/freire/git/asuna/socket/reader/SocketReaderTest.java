@@ -0,0 +1,106 @@
+package org.framework.rodolfo.freire.git.asuna.socket.reader;
+
+import org.framework.rodolfo.freire.git.asuna.exception.ProtocolViolationException;
+import org.framework.rodolfo.freire.git.asuna.socket.NIOService;
+import org.framework.rodolfo.freire.git.asuna.util.ByteBufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SocketReaderTest {
+
+    @Test
+    void growsUpToTheMaxReceiveBufferSize() throws Exception {
+        NIOService service = new NIOService(256);
+        ByteBufferPool pool = new ByteBufferPool(true);
+        service.setBufferPool(pool);
+        service.setMaxReceiveBufferSize(1024);
+        try (ServerSocketChannel server = openServer();
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel channel = server.accept()) {
+            write(client, 4096);
+            SocketReader reader = new SocketReader(service);
+            // Nothing is consumed, as if every read still ends inside one packet.
+            assertThrows(ProtocolViolationException.class, () -> {
+                while (true) {
+                    reader.read(channel);
+                    assertTrue(reader.getBuffer().capacity() <= 1024);
+                    reader.compact();
+                }
+            });
+            assertEquals(1024, reader.getBytesRead());
+            assertEquals(1024, reader.getBuffer().capacity());
+            reader.release();
+            assertEquals(0, pool.getOutstandingCount());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void growsPastTheSharedBufferAndShrinksOnceConsumed() throws Exception {
+        NIOService service = new NIOService(256);
+        ByteBufferPool pool = new ByteBufferPool(true);
+        service.setBufferPool(pool);
+        service.setMaxReceiveBufferSize(-1);
+        try (ServerSocketChannel server = openServer();
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel channel = server.accept()) {
+            write(client, 20000);
+            SocketReader reader = new SocketReader(service);
+            while (reader.getBytesRead() < 20000) {
+                reader.read(channel);
+                reader.compact();
+            }
+            ByteBuffer buffer = reader.getBuffer();
+            assertTrue(buffer.capacity() >= 20000);
+            assertEquals(20000, buffer.position());
+            for (int i = 0; i < 20000; i++) {
+                assertEquals((byte) (i % 251), buffer.get(i));
+            }
+
+            // Consume all but the last 10 bytes.
+            buffer.flip();
+            buffer.position(19990);
+            reader.compact();
+            buffer = reader.getBuffer();
+            assertTrue(buffer.capacity() < 20000);
+            assertEquals(10, buffer.position());
+            for (int i = 0; i < 10; i++) {
+                assertEquals((byte) ((19990 + i) % 251), buffer.get(i));
+            }
+            assertEquals(1, pool.getOutstandingCount());
+
+            buffer.flip();
+            buffer.position(10);
+            reader.compact();
+            assertEquals(0, pool.getOutstandingCount());
+            assertSame(service.getSharedBuffer(), reader.getBuffer());
+        } finally {
+            service.close();
+        }
+    }
+
+    private static ServerSocketChannel openServer() throws IOException {
+        return ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private static void write(SocketChannel channel, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            data.put((byte) (i % 251));
+        }
+        data.flip();
+        while (data.hasRemaining()) channel.write(data);
+    }
+}
@@ -0,0 +1,113 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SocketWriterTest {
+
+    @Test
+    void limitsGatheredBytes() {
+        SocketWriter writer = new SocketWriter();
+        assertTrue(writer.canAccept(SocketWriter.MAX_GATHER_BYTES * 4L));
+        writer.addPacket(new byte[100], null);
+        assertTrue(writer.canAccept(SocketWriter.MAX_GATHER_BYTES - 100));
+        assertFalse(writer.canAccept(SocketWriter.MAX_GATHER_BYTES - 99));
+        writer.discard();
+        // A single packet larger than the limit still goes out on its own.
+        assertTrue(writer.isEmpty());
+        writer.addPacket(new byte[SocketWriter.MAX_GATHER_BYTES + 1], null);
+        assertFalse(writer.canAccept(0));
+    }
+
+    @Test
+    void limitsGatheredBuffers() {
+        SocketWriter writer = new SocketWriter();
+        for (int i = 0; i < SocketWriter.MAX_GATHER_BUFFERS - 1; i++) {
+            writer.addPacket(new byte[1], null);
+        }
+        assertTrue(writer.canAccept(1));
+        writer.addPacket(new byte[1], null);
+        assertFalse(writer.canAccept(1));
+        assertEquals(SocketWriter.MAX_GATHER_BUFFERS, writer.remaining());
+    }
+
+    @Test
+    void reportsSentPacketsInOrderOnceTheirBytesAreOut() throws Exception {
+        List<Object> sent = new ArrayList<>();
+        List<Long> writtenWhenSent = new ArrayList<>();
+        List<ByteBuffer[]> released = new ArrayList<>();
+        SocketWriter[] writerHolder = new SocketWriter[1];
+        SocketWriter writer = new SocketWriter(tag -> {
+            sent.add(tag);
+            writtenWhenSent.add(writerHolder[0].getBytesWritten());
+        });
+        writerHolder[0] = writer;
+
+        int packets = 200;
+        long[] ends = new long[packets];
+        long total = 0;
+        for (int i = 0; i < packets; i++) {
+            // Every tenth packet is empty, it is reported right after the one before it.
+            total += i % 10 == 0 ? 0 : 3000 + i * 37;
+            ends[i] = total;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel peer = server.accept()) {
+            client.configureBlocking(false);
+            peer.configureBlocking(false);
+            ByteBuffer sink = ByteBuffer.allocate(8192);
+            long received = 0;
+            int next = 0;
+            while (received < total || !writer.isEmpty()) {
+                while (next < packets && writer.canAccept(ends[next] - (next == 0 ? 0 : ends[next - 1]))) {
+                    int length = (int) (ends[next] - (next == 0 ? 0 : ends[next - 1]));
+                    writer.addPacket(new ByteBuffer[]{packet(length, next)}, next, released::add);
+                    next++;
+                }
+                writer.write(client);
+                sink.clear();
+                int read = peer.read(sink);
+                for (int i = 0; i < read; i++) {
+                    assertEquals(byteAt(received + i, ends), sink.get(i));
+                }
+                received += read;
+            }
+        }
+
+        assertEquals(packets, sent.size());
+        assertEquals(packets, released.size());
+        for (int i = 0; i < packets; i++) {
+            assertEquals(i, sent.get(i));
+            assertTrue(writtenWhenSent.get(i) >= ends[i]);
+        }
+        assertEquals(total, writer.getBytesWritten());
+    }
+
+    private static ByteBuffer packet(int length, int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) buffer.put((byte) index);
+        buffer.flip();
+        return buffer;
+    }
+
+    // The byte at a stream offset carries the index of the packet it belongs to.
+    private static byte byteAt(long offset, long[] ends) {
+        int index = 0;
+        while (ends[index] <= offset) index++;
+        return (byte) index;
+    }
+}
@@ -0,0 +1,94 @@
+package org.framework.rodolfo.freire.git.asuna.socket.write;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteLaneTest {
+
+    private static final byte[] PACKET = new byte[0];
+
+    @Test
+    void pollsInOfferOrder() {
+        WriteLane lane = new WriteLane(1);
+        assertTrue(lane.isEmpty());
+        assertNull(lane.poll());
+        WriteEntry first = new WriteEntry().initPacket(PACKET, 1);
+        WriteEntry second = new WriteEntry().initPacket(PACKET, 2);
+        lane.offer(first);
+        lane.offer(second);
+        assertSame(first, lane.peek());
+        assertSame(first, lane.poll());
+        assertSame(second, lane.peek());
+        assertSame(second, lane.poll());
+        assertTrue(lane.isEmpty());
+        assertNull(lane.poll());
+    }
+
+    @Test
+    void reusesEntriesAfterDraining() {
+        WriteLane lane = new WriteLane(1);
+        WriteEntry entry = new WriteEntry().initPacket(PACKET, null);
+        for (int i = 0; i < 3; i++) {
+            lane.offer(entry);
+            assertSame(entry, lane.poll());
+            assertNull(lane.poll());
+        }
+    }
+
+    @Test
+    void keepsEachProducersOrderUnderContention() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        WriteLane lane = new WriteLane(1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    lane.offer(new WriteEntry().initPacket(PACKET, new int[]{producer, i}));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            WriteEntry entry = lane.poll();
+            if (entry == null) {
+                // Empty, or the entry behind the head is not linked yet.
+                Thread.yield();
+                continue;
+            }
+            int[] tag = (int[]) entry.getTag();
+            assertEquals(next[tag[0]], tag[1]);
+            next[tag[0]]++;
+            received++;
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(lane.poll());
+        for (int count : next) assertEquals(perProducer, count);
+    }
+
+    @Test
+    void rejectsWeightBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new WriteLane(0));
+        assertThrows(IllegalArgumentException.class, () -> new WriteLane(1).setWeight(-1));
+    }
+}
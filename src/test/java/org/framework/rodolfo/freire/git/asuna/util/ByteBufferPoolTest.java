@@ -0,0 +1,127 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBufferPoolTest {
+
+    @Test
+    void roundsRequestsUpToTheirSizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(false);
+        assertBuffer(pool.acquire(0), 0, ByteBufferPool.MIN_POOLED_SIZE);
+        assertBuffer(pool.acquire(1), 1, ByteBufferPool.MIN_POOLED_SIZE);
+        assertBuffer(pool.acquire(256), 256, 256);
+        assertBuffer(pool.acquire(257), 257, 512);
+        assertBuffer(pool.acquire(5000), 5000, 8192);
+        assertBuffer(pool.acquire(ByteBufferPool.MAX_POOLED_SIZE), ByteBufferPool.MAX_POOLED_SIZE, ByteBufferPool.MAX_POOLED_SIZE);
+        assertBuffer(pool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1), ByteBufferPool.MAX_POOLED_SIZE + 1, ByteBufferPool.MAX_POOLED_SIZE + 1);
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(-1));
+    }
+
+    @Test
+    void reusesReleasedBuffersOfTheSameSizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(false);
+        ByteBuffer buffer = pool.acquire(300);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer again = pool.acquire(400);
+        assertSame(buffer, again);
+        assertBuffer(again, 400, 512);
+        assertEquals(0, again.position());
+        assertNotSame(buffer, pool.acquire(300));
+        pool.release(again);
+        assertNotSame(again, pool.acquire(200));
+    }
+
+    @Test
+    void neverPoolsForeignOrOversizedBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(false);
+        ByteBuffer heap = ByteBuffer.allocate(512);
+        ByteBuffer odd = ByteBuffer.allocateDirect(300);
+        ByteBuffer large = pool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1);
+        pool.release(heap);
+        pool.release(odd);
+        pool.release(large);
+        pool.release(null);
+        for (int i = 0; i < 4; i++) {
+            ByteBuffer buffer = pool.acquire(300);
+            assertNotSame(heap, buffer);
+            assertNotSame(odd, buffer);
+            assertTrue(buffer.isDirect());
+        }
+        assertNotSame(large, pool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1));
+    }
+
+    @Test
+    void keepsThreadCachesApartAndSharesTheOverflow() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(1, 4, false);
+        ByteBuffer cached = pool.acquire(1000);
+        ByteBuffer shared = pool.acquire(1000);
+        pool.release(cached);
+        pool.release(shared);
+        AtomicReference<ByteBuffer> fromOtherThread = new AtomicReference<>();
+        AtomicReference<ByteBuffer> secondFromOtherThread = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            fromOtherThread.set(pool.acquire(1000));
+            secondFromOtherThread.set(pool.acquire(1000));
+        });
+        thread.start();
+        thread.join();
+        assertSame(shared, fromOtherThread.get());
+        assertNotSame(cached, secondFromOtherThread.get());
+        assertSame(cached, pool.acquire(1000));
+    }
+
+    @Test
+    void tracksOutstandingBuffersWithLeakDetection() {
+        ByteBufferPool pool = new ByteBufferPool(true);
+        assertTrue(pool.isLeakDetectionEnabled());
+        ByteBuffer released = pool.acquire(100);
+        ByteBuffer leaked = pool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1);
+        assertEquals(2, pool.getOutstandingCount());
+        pool.release(released);
+        assertEquals(1, pool.getOutstandingCount());
+
+        List<Throwable> leaks = new ArrayList<>();
+        assertEquals(1, pool.reportLeaks(leaks::add));
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0) instanceof IllegalStateException);
+        assertTrue(leaks.get(0).getCause().getMessage().contains((ByteBufferPool.MAX_POOLED_SIZE + 1) + " bytes"));
+
+        assertThrows(IllegalStateException.class, () -> pool.release(released));
+        assertThrows(IllegalStateException.class, () -> pool.release(ByteBuffer.allocateDirect(512)));
+        pool.release(leaked);
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(0, pool.reportLeaks(leaks::add));
+    }
+
+    @Test
+    void skipsTrackingWithoutLeakDetection() {
+        ByteBufferPool pool = new ByteBufferPool(false);
+        assertFalse(pool.isLeakDetectionEnabled());
+        ByteBuffer buffer = pool.acquire(100);
+        assertEquals(-1, pool.getOutstandingCount());
+        assertEquals(0, pool.reportLeaks(e -> {
+            throw new AssertionError(e);
+        }));
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(100));
+    }
+
+    private static void assertBuffer(ByteBuffer buffer, int limit, int capacity) {
+        assertTrue(buffer.isDirect());
+        assertEquals(limit, buffer.limit());
+        assertEquals(capacity, buffer.capacity());
+    }
+}
@@ -0,0 +1,97 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscArrayQueueTest {
+
+    @Test
+    void roundsCapacityUpToAPowerOfTwo() {
+        assertEquals(2, new MpscArrayQueue<>(2).capacity());
+        assertEquals(8, new MpscArrayQueue<>(5).capacity());
+        assertEquals(16, new MpscArrayQueue<>(16).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new MpscArrayQueue<>(1));
+    }
+
+    @Test
+    void refusesOffersWhenFull() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+        assertThrows(NullPointerException.class, () -> queue.offer(null));
+    }
+
+    @Test
+    void keepsOrderWhileWrappingAround() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(4);
+        int next = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(round * 3 + i));
+            }
+            assertEquals(List.of(round * 3, round * 3 + 1, round * 3 + 2), queue.snapshot());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(next++), queue.poll());
+            }
+            assertTrue(queue.isEmpty());
+            assertNull(queue.poll());
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void keepsEachProducersOrderUnderContention() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        MpscArrayQueue<int[]> queue = new MpscArrayQueue<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    int[] element = {producer, i};
+                    while (!queue.offer(element)) Thread.yield();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[element[0]], element[1]);
+            next[element[0]]++;
+            received++;
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull(queue.poll());
+        for (int count : next) assertEquals(perProducer, count);
+    }
+}
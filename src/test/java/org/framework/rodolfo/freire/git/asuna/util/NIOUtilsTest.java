@@ -0,0 +1,33 @@
+package org.framework.rodolfo.freire.git.asuna.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NIOUtilsTest {
+
+    @Test
+    void slicesKeepTheSourceByteOrder() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer buffer = ByteBuffer.allocate(16).order(order);
+            buffer.putInt(0x01020304).putInt(0x05060708).flip();
+            buffer.getInt();
+            ByteBuffer slice = NIOUtils.slice(buffer, 4);
+            assertEquals(order, slice.order());
+            assertEquals(0x05060708, slice.getInt(slice.position()));
+            assertTrue(slice.isReadOnly());
+            assertEquals(8, buffer.position());
+
+            ByteBuffer retained = NIOUtils.retain(slice);
+            assertEquals(order, retained.order());
+            assertEquals(0x05060708, retained.getInt());
+            assertFalse(retained.isReadOnly());
+            assertEquals(4, slice.remaining());
+        }
+    }
+}